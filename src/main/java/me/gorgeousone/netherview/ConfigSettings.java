@@ -23,8 +23,19 @@ public class ConfigSettings {
 	
 	private int portalProjectionDist;
 	private int portalDisplayRangeSquared;
+	private int portalPrefetchRangeSquared;
 	private int maxPortalSize;
 	private HashMap<World.Environment, BlockType> worldBorderBlockTypes;
+	private boolean syncChunkLoadingEnabled;
+	private int cacheExpirationMinutes;
+	private long cacheMemoryBudget;
+	private int viewPointGridSize;
+	private boolean occlusionCullingEnabled;
+	private double minViewUpdateDistance;
+	private int viewUpdateBudgetMillis;
+	private int viewWorkerThreads;
+	private int fakeBlocksPerTick;
+	private boolean packetBatchingEnabled;
 	
 	private boolean entityHidingEnabled;
 	private boolean entityViewingEnabled;
@@ -65,10 +76,90 @@ public class ConfigSettings {
 		return portalDisplayRangeSquared;
 	}
 	
+	/**
+	 * Returns the squared radius in which the caches of a portal will be loaded in the background for players approaching it.
+	 * 0 if prefetching is disabled.
+	 */
+	public int getPortalPrefetchRangeSquared() {
+		return portalPrefetchRangeSquared;
+	}
+	
 	public int getMaxPortalSize() {
 		return maxPortalSize;
 	}
 	
+	/**
+	 * Returns true if chunks may be loaded synchronously to copy blocks for portal projections.
+	 * Otherwise unloaded chunks will be displayed as border blocks until they are loaded.
+	 */
+	public boolean isSyncChunkLoadingEnabled() {
+		return syncChunkLoadingEnabled;
+	}
+	
+	/**
+	 * Returns the time in minutes after which the block caches of a portal that wasn't viewed are removed.
+	 */
+	public int getCacheExpirationMinutes() {
+		return cacheExpirationMinutes;
+	}
+	
+	/**
+	 * Returns the maximum memory in bytes that all block caches and projection caches together should use.
+	 */
+	public long getCacheMemoryBudget() {
+		return cacheMemoryBudget;
+	}
+	
+	/**
+	 * Returns into how many steps per block the eye positions of players are rounded to share view frustums between players.
+	 * With occlusion culling enabled the sets of visible blocks are shared as well. 0 if sharing is disabled.
+	 */
+	public int getViewPointGridSize() {
+		return viewPointGridSize;
+	}
+	
+	/**
+	 * Returns true if projection blocks hidden behind other projection blocks should not be sent to players.
+	 */
+	public boolean isOcclusionCullingEnabled() {
+		return occlusionCullingEnabled;
+	}
+	
+	/**
+	 * Returns the distance in blocks a player has to move before their portal view is updated again.
+	 */
+	public double getMinViewUpdateDistance() {
+		return minViewUpdateDistance;
+	}
+	
+	/**
+	 * Returns the time in milliseconds that can be spent per tick on updating the portal views of moving players.
+	 */
+	public int getViewUpdateBudgetMillis() {
+		return viewUpdateBudgetMillis;
+	}
+	
+	/**
+	 * Returns the count of threads calculating the projection blocks visible for players. 0 if they are calculated on the main thread.
+	 */
+	public int getViewWorkerThreads() {
+		return viewWorkerThreads;
+	}
+	
+	/**
+	 * Returns the count of fake blocks that can be sent to a player per tick. 0 if all blocks are sent at once.
+	 */
+	public int getFakeBlocksPerTick() {
+		return fakeBlocksPerTick;
+	}
+	
+	/**
+	 * Returns true if packets should be written to players without flushing and flushed once per update.
+	 */
+	public boolean isPacketBatchingEnabled() {
+		return packetBatchingEnabled;
+	}
+	
 	public boolean isEntityHidingEnabled() {
 		return entityHidingEnabled;
 	}
@@ -150,8 +241,20 @@ public class ConfigSettings {
 		
 		int portalDisplayRange = clamp(config.getInt("portal-display-range"), 2, 128);
 		portalDisplayRangeSquared = (int) Math.pow(portalDisplayRange, 2);
+		int portalPrefetchRange = clamp(config.getInt("portal-prefetch-range"), 0, 256);
+		portalPrefetchRangeSquared = (int) Math.pow(portalPrefetchRange, 2);
 		portalProjectionDist = clamp(config.getInt("portal-projection-distance"), 1, 32);
 		maxPortalSize = clamp(config.getInt("max-portal-size"), 3, 21);
+		syncChunkLoadingEnabled = config.getBoolean("load-chunks-synchronously");
+		cacheExpirationMinutes = clamp(config.getInt("cache-expiration-minutes"), 1, 1440);
+		cacheMemoryBudget = clamp(config.getInt("cache-memory-budget-mb"), 1, 65536) * 1024L * 1024L;
+		viewPointGridSize = clamp(config.getInt("view-point-grid-size"), 0, 64);
+		occlusionCullingEnabled = config.getBoolean("occlusion-culling");
+		minViewUpdateDistance = clamp(config.getDouble("min-view-update-distance"), 0, 1);
+		viewUpdateBudgetMillis = clamp(config.getInt("view-update-budget-ms"), 1, 50);
+		viewWorkerThreads = clamp(config.getInt("view-worker-threads"), 0, 8);
+		fakeBlocksPerTick = clamp(config.getInt("fake-blocks-per-tick"), 0, 65536);
+		packetBatchingEnabled = config.getBoolean("batch-packets");
 		
 		entityHidingEnabled = config.getBoolean("hide-entities-behind-portals");
 		entityViewingEnabled = config.getBoolean("show-entities-inside-portals");
@@ -254,4 +357,8 @@ public class ConfigSettings {
 	private int clamp(int value, int min, int max) {
 		return Math.max(min, Math.min(value, max));
 	}
+	
+	private double clamp(double value, double min, double max) {
+		return Math.max(min, Math.min(value, max));
+	}
 }
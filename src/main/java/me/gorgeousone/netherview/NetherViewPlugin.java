@@ -23,7 +23,9 @@ import me.gorgeousone.netherview.customportal.commands.UnlinkPortalCommand;
 import me.gorgeousone.netherview.handlers.EntityVisibilityHandler;
 import me.gorgeousone.netherview.handlers.PortalHandler;
 import me.gorgeousone.netherview.handlers.ViewHandler;
+import me.gorgeousone.netherview.handlers.ViewUpdateScheduler;
 import me.gorgeousone.netherview.listeners.BlockChangeListener;
+import me.gorgeousone.netherview.listeners.ChunkLoadListener;
 import me.gorgeousone.netherview.listeners.PlayerMoveListener;
 import me.gorgeousone.netherview.listeners.PlayerQuitListener;
 import me.gorgeousone.netherview.listeners.PlayerTeleportListener;
@@ -73,6 +75,7 @@ public final class NetherViewPlugin extends JavaPlugin {
 	private PacketHandler packetHandler;
 	private PortalHandler portalHandler;
 	private ViewHandler viewHandler;
+	private ViewUpdateScheduler viewUpdateScheduler;
 	private EntityVisibilityHandler entityHandler;
 	private PlayerSelectionHandler selectionHandler;
 	private CustomPortalHandler customPortalHandler;
@@ -100,9 +103,13 @@ public final class NetherViewPlugin extends JavaPlugin {
 		loadConfigSettings();
 		loadLangConfigData();
 		
-		packetHandler = new PacketHandler();
+		packetHandler = new PacketHandler(this, configSettings);
 		portalHandler = new PortalHandler(this, configSettings, portalMaterial);
-		viewHandler = new ViewHandler(configSettings, portalHandler, packetHandler);
+		viewHandler = new ViewHandler(this, configSettings, portalHandler, packetHandler);
+		viewUpdateScheduler = new ViewUpdateScheduler(this, configSettings, viewHandler);
+		portalHandler.setCacheLoadListener(viewUpdateScheduler::markViewersDirty);
+		viewHandler.setViewDisabledListener(viewUpdateScheduler::unregisterPlayer);
+		portalHandler.setViewedProjections(() -> viewHandler.getSessionsSortedByPortalSides().keySet());
 		entityHandler = new EntityVisibilityHandler(this, configSettings, viewHandler, packetHandler);
 		selectionHandler = new PlayerSelectionHandler();
 		customPortalHandler = new CustomPortalHandler();
@@ -154,7 +161,9 @@ public final class NetherViewPlugin extends JavaPlugin {
 		loadConfigSettings();
 		loadLangConfigData();
 		
+		packetHandler.reload();
 		viewHandler.reload();
+		viewUpdateScheduler.reload();
 		portalHandler.reload();
 		customPortalHandler.reload();
 		entityHandler.reload();
@@ -171,9 +180,11 @@ public final class NetherViewPlugin extends JavaPlugin {
 		}
 		
 		backupPortals();
-		viewHandler.reload();
+		viewHandler.disable();
+		viewUpdateScheduler.disable();
 		portalHandler.disable();
 		entityHandler.disable();
+		packetHandler.disable();
 	}
 	
 	public PortalHandler getPortalHandler() {
@@ -239,9 +250,10 @@ public final class NetherViewPlugin extends JavaPlugin {
 		
 		PluginManager manager = Bukkit.getPluginManager();
 		manager.registerEvents(new PlayerTeleportListener(configSettings, portalHandler, viewHandler), this);
-		manager.registerEvents(new PlayerMoveListener(this, configSettings, viewHandler, customPortalHandler, portalMaterial), this);
+		manager.registerEvents(new PlayerMoveListener(this, configSettings, viewHandler, viewUpdateScheduler, customPortalHandler, portalMaterial), this);
 		manager.registerEvents(new BlockChangeListener(this, configSettings, portalHandler, viewHandler, packetHandler, portalMaterial), this);
-		manager.registerEvents(new PlayerQuitListener(viewHandler, selectionHandler), this);
+		manager.registerEvents(new PlayerQuitListener(viewHandler, viewUpdateScheduler, selectionHandler), this);
+		manager.registerEvents(new ChunkLoadListener(portalHandler, viewHandler), this);
 		
 		manager.registerEvents(new PlayerClickListener(selectionHandler, configSettings), this);
 	}
@@ -2,35 +2,37 @@ package me.gorgeousone.netherview.blockcache;
 
 import me.gorgeousone.netherview.geometry.BlockVec;
 import me.gorgeousone.netherview.portal.Portal;
-import me.gorgeousone.netherview.utils.FacingUtils;
-import me.gorgeousone.netherview.wrapper.WrappedBoundingBox;
+import me.gorgeousone.netherview.utils.ChunkUtils;
 import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
-import org.bukkit.Chunk;
 import org.bukkit.World;
-import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
-import org.bukkit.util.Vector;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
- * One big array of BlockTypes used to store information about all blocks in a cuboid area around a portal.
+ * One big palette compressed storage of BlockTypes used to store information about all blocks in a cuboid area around a portal.
  * For each of the 2 sides of a portal there is a separate BlockCache.
  */
-public class BlockCache {
+public class BlockCache implements ReadableBlockCache {
+	
+	//estimated heap memory of the header of the occlusion array
+	private static final int ARRAY_HEADER_BYTES = 16;
 	
 	private final Portal portal;
-	private final Set<Chunk> chunks;
+	private final long[] chunkKeys;
+	private final Set<Long> missingChunks;
 	
-	private final BlockType[][][] blockCopies;
+	private final PalettedBlockStorage blockCopies;
+	private final long[] occlusionBits;
+	private final int occlusionSizeY;
+	private final int occlusionSizeZ;
 	private final BlockVec min;
 	private final BlockVec max;
 	
 	private final BlockVec facing;
 	private final BlockType borderType;
+	private final CacheEntityFinder entityFinder;
 	
 	public BlockCache(Portal portal,
 	                  BlockVec offset,
@@ -39,43 +41,57 @@ public class BlockCache {
 	                  BlockType borderType) {
 		
 		this.portal = portal;
-		this.chunks = new HashSet<>();
+		this.missingChunks = new HashSet<>();
 		
-		this.blockCopies = new BlockType[size.getX()][size.getY()][size.getZ()];
+		this.blockCopies = new PalettedBlockStorage(size.getX(), size.getY(), size.getZ());
+		this.occlusionSizeY = size.getY() + 2;
+		this.occlusionSizeZ = size.getZ() + 2;
+		this.occlusionBits = new long[((size.getX() + 2) * occlusionSizeY * occlusionSizeZ + 63) / 64];
 		this.min = offset.clone();
-		this.max = offset.clone().add(size());
+		this.max = offset.clone().add(size);
 		
 		this.facing = facing;
 		this.borderType = borderType;
 		
-		for (int chunkX = min.getX() >> 4; chunkX <= max.getX() >> 4; chunkX++) {
-			for (int chunkZ = min.getZ() >> 4; chunkZ <= max.getZ() >> 4; chunkZ++) {
-				
-				chunks.add(portal.getWorld().getChunkAt(chunkX, chunkZ));
-			}
-		}
-	}
-	
-	private BlockVec size() {
-		return new BlockVec(blockCopies.length, blockCopies[0].length, blockCopies[0][0].length);
+		this.chunkKeys = ChunkUtils.getChunkKeys(min, max);
+		this.entityFinder = new CacheEntityFinder(this, chunkKeys);
 	}
 	
+	@Override
 	public Portal getPortal() {
 		return portal;
 	}
 	
+	@Override
 	public World getWorld() {
 		return portal.getWorld();
 	}
 	
-	public Set<Chunk> getChunks() {
-		return chunks;
+	/**
+	 * Returns the packed coordinates of all chunks the cache is located in (see {@link ChunkUtils#getChunkKey(int, int)}).
+	 */
+	public long[] getChunkKeys() {
+		return chunkKeys;
 	}
 	
+	/**
+	 * Returns the packed coordinates of chunks that were not loaded when the cache was created.
+	 * The blocks in these chunks are temporarily replaced with the cache border block type.
+	 */
+	public Set<Long> getMissingChunks() {
+		return missingChunks;
+	}
+	
+	public boolean hasMissingChunks() {
+		return !missingChunks.isEmpty();
+	}
+	
+	@Override
 	public BlockVec getMin() {
 		return min.clone();
 	}
 	
+	@Override
 	public BlockVec getMax() {
 		return max.clone();
 	}
@@ -84,14 +100,7 @@ public class BlockCache {
 		return facing.clone();
 	}
 	
-	public boolean contains(BlockVec loc) {
-		return contains(loc.getX(), loc.getY(), loc.getZ());
-	}
-	
-	public boolean contains(Vector loc) {
-		return contains(loc.getX(), loc.getY(), loc.getZ());
-	}
-	
+	@Override
 	public boolean contains(double x, double y, double z) {
 		return x >= min.getX() && x < max.getX() &&
 		       y >= min.getY() && y < max.getY() &&
@@ -141,22 +150,17 @@ public class BlockCache {
 		}
 	}
 	
-	public BlockType getBlockTypeAt(BlockVec blockPos) {
-		return getBlockTypeAt(blockPos.getX(),
-		                      blockPos.getY(),
-		                      blockPos.getZ());
-	}
-	
+	@Override
 	public BlockType getBlockTypeAt(int x, int y, int z) {
 		
 		if (!contains(x, y, z)) {
 			return null;
 		}
 		
-		return blockCopies
-				[x - min.getX()]
-				[y - min.getY()]
-				[z - min.getZ()];
+		return blockCopies.get(
+				x - min.getX(),
+				y - min.getY(),
+				z - min.getZ());
 	}
 	
 	public void setBlockTypeAt(BlockVec blockPos, BlockType blockType) {
@@ -168,17 +172,34 @@ public class BlockCache {
 	}
 	
 	public void setBlockTypeAt(int x, int y, int z, BlockType blockType) {
-		blockCopies
-				[x - min.getX()]
-				[y - min.getY()]
-				[z - min.getZ()] = blockType;
+		blockCopies.set(
+				x - min.getX(),
+				y - min.getY(),
+				z - min.getZ(),
+				blockType);
 	}
 	
 	public void removeBlockDataAt(BlockVec blockPos) {
-		blockCopies
-				[blockPos.getX() - min.getX()]
-				[blockPos.getY() - min.getY()]
-				[blockPos.getZ() - min.getZ()] = null;
+		blockCopies.set(
+				blockPos.getX() - min.getX(),
+				blockPos.getY() - min.getY(),
+				blockPos.getZ() - min.getZ(),
+				null);
+	}
+	
+	/**
+	 * Returns an estimate of the heap memory in bytes used to store the block copies and the block occlusion of this cache.
+	 */
+	@Override
+	public long getBytesUsed() {
+		return blockCopies.getBytesUsed() + ARRAY_HEADER_BYTES + (long) occlusionBits.length * Long.BYTES;
+	}
+	
+	/**
+	 * Returns the count of distinct BlockTypes stored in this cache.
+	 */
+	public int getPaletteSize() {
+		return blockCopies.getPaletteSize();
 	}
 	
 	/**
@@ -189,73 +210,82 @@ public class BlockCache {
 	}
 	
 	/**
-	 * Returns true if the block copy at the given position is visible by checking the surrounding blocks in the world for transparent ones
+	 * Returns true if the location is inside the cache or the 1 block thick margin around it, of which the occlusion is tracked as well.
 	 */
-	public boolean isBlockNowVisible(BlockVec blockPos) {
-		
-		for (BlockVec facing : FacingUtils.getAxesBlockVecs()) {
-			
-			BlockVec touchingBlockPos = blockPos.clone().add(facing);
-			
-			Block touchingBlock = getWorld().getBlockAt(
-					touchingBlockPos.getX(),
-					touchingBlockPos.getY(),
-					touchingBlockPos.getZ());
-			
-			
-			if (!touchingBlock.getType().isOccluding()) {
-				return true;
-			}
-		}
-		
-		//TODO check if block is directly in front of the portal.
-		return false;
+	public boolean containsWithMargin(BlockVec loc) {
+		return containsWithMargin(loc.getX(), loc.getY(), loc.getZ());
 	}
 	
-	private final Map<Chunk, Set<Entity>> unloadedChunks = new HashMap<>();
+	public boolean containsWithMargin(int x, int y, int z) {
+		return x >= min.getX() - 1 && x <= max.getX() &&
+		       y >= min.getY() - 1 && y <= max.getY() &&
+		       z >= min.getZ() - 1 && z <= max.getZ();
+	}
 	
 	/**
-	 * Returns a set of all entities that are intersecting this BlockCache
+	 * Returns true if the block at the given location (inside the cache or it's margin) is occluding.
+	 * Locations outside of that range are always treated as transparent.
 	 */
-	public Set<Entity> getEntities() {
+	public boolean isOccluding(int x, int y, int z) {
 		
-		Set<Entity> containedEntities = new HashSet<>();
-		
-		for (Chunk chunk : chunks) {
-			
-			if (!getWorld().isChunkLoaded(chunk)) {
-				
-				unloadedChunks.computeIfAbsent(chunk, set -> addContainedEntities(chunk, new HashSet<>()));
-				containedEntities.addAll(unloadedChunks.get(chunk));
-				
-			} else {
-				
-				addContainedEntities(chunk, containedEntities);
-				unloadedChunks.remove(chunk);
-			}
+		if (!containsWithMargin(x, y, z)) {
+			return false;
 		}
 		
-		return containedEntities;
+		int index = getOcclusionIndex(x, y, z);
+		return (occlusionBits[index >> 6] & 1L << (index & 63)) != 0;
 	}
 	
-	private Set<Entity> addContainedEntities(Chunk chunk, Set<Entity> setToAddTo) {
-		
-		boolean wasChunkLoaded = getWorld().isChunkLoaded(chunk);
-		Entity[] chunkEntities = chunk.getEntities();
+	public boolean isOccluding(BlockVec blockPos) {
+		return isOccluding(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+	}
+	
+	/**
+	 * Sets whether the block at the given location (inside the cache or it's margin) is occluding.
+	 */
+	public void setOccluding(int x, int y, int z, boolean isOccluding) {
 		
-		for (int i = 0; i < chunkEntities.length; i++) {
-			
-			Entity entity = chunkEntities[i];
-			
-			if (WrappedBoundingBox.of(entity).intersectsBlockCache(this)) {
-				setToAddTo.add(entity);
-			}
+		if (!containsWithMargin(x, y, z)) {
+			return;
 		}
 		
-		if (!wasChunkLoaded) {
-			getWorld().unloadChunk(chunk);
+		int index = getOcclusionIndex(x, y, z);
+		
+		if (isOccluding) {
+			occlusionBits[index >> 6] |= 1L << (index & 63);
+		} else {
+			occlusionBits[index >> 6] &= ~(1L << (index & 63));
 		}
+	}
+	
+	public void setOccluding(BlockVec blockPos, boolean isOccluding) {
+		setOccluding(blockPos.getX(), blockPos.getY(), blockPos.getZ(), isOccluding);
+	}
+	
+	private int getOcclusionIndex(int x, int y, int z) {
+		return ((x - min.getX() + 1) * occlusionSizeY + (y - min.getY() + 1)) * occlusionSizeZ + (z - min.getZ() + 1);
+	}
+	
+	/**
+	 * Returns true if any of the blocks touching the given position is transparent
+	 */
+	public boolean isBlockNowVisible(BlockVec blockPos) {
+		return isBlockNowVisible(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+	}
+	
+	public boolean isBlockNowVisible(int x, int y, int z) {
 		
-		return setToAddTo;
+		//TODO check if block is directly in front of the portal.
+		return !isOccluding(x + 1, y, z) ||
+		       !isOccluding(x - 1, y, z) ||
+		       !isOccluding(x, y + 1, z) ||
+		       !isOccluding(x, y - 1, z) ||
+		       !isOccluding(x, y, z + 1) ||
+		       !isOccluding(x, y, z - 1);
+	}
+	
+	@Override
+	public Set<Entity> getEntities(boolean loadChunks) {
+		return entityFinder.getEntities(loadChunks);
 	}
-}
\ No newline at end of file
+}
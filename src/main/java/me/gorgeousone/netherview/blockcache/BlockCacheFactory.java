@@ -2,24 +2,100 @@ package me.gorgeousone.netherview.blockcache;
 
 import me.gorgeousone.netherview.geometry.AxisAlignedRect;
 import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.geometry.Cuboid;
 import me.gorgeousone.netherview.portal.Portal;
+import me.gorgeousone.netherview.utils.ChunkUtils;
 import me.gorgeousone.netherview.utils.FacingUtils;
 import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
-import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.util.Vector;
 
 import java.util.AbstractMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 public class BlockCacheFactory {
 	
+	private static final BlockVec[] AXES = FacingUtils.getAxesBlockVecs();
+	
+	/**
+	 * Creates the front and back block cache of a portal with blocks copied from the given block source.
+	 * Can be called asynchronously if the block source does not access the world.
+	 */
 	public static Map.Entry<BlockCache, BlockCache> createBlockCaches(Portal portal,
 	                                                                  int viewDist,
-	                                                                  BlockType cacheBorderBlockType) {
+	                                                                  BlockType cacheBorderBlockType,
+	                                                                  BlockSource blockSource) {
+		
+		Vector[] cacheCorners = getCacheCorners(portal, viewDist);
+		Vector portalFacing = portal.getPortalRect().getAxis().getNormal();
+		
+		BlockCache front = copyBlocksInBounds(
+				portal,
+				cacheCorners[0],
+				cacheCorners[1],
+				portalFacing,
+				cacheBorderBlockType,
+				blockSource);
+		
+		BlockCache back = copyBlocksInBounds(
+				portal,
+				cacheCorners[2],
+				cacheCorners[3],
+				portalFacing.clone().multiply(-1),
+				cacheBorderBlockType,
+				blockSource);
+		
+		return new AbstractMap.SimpleEntry<>(front, back);
+	}
+	
+	/**
+	 * Takes snapshots of all chunks needed to create the block caches of a portal so they can be created asynchronously.
+	 * Has to be called on the main thread.
+	 */
+	public static SnapshotBlockSource takeChunkSnapshots(Portal portal, int viewDist, boolean loadChunks) {
+		
+		Cuboid cacheBounds = getCacheBounds(portal, viewDist);
+		BlockVec min = cacheBounds.getMin();
+		BlockVec max = cacheBounds.getMax();
+		
+		return new SnapshotBlockSource(
+				portal.getWorld(),
+				min.getX(),
+				min.getZ(),
+				max.getX() - 1,
+				max.getZ() - 1,
+				loadChunks);
+	}
+	
+	/**
+	 * Returns the area copied into the block caches of a portal,
+	 * including 1 extra block around the caches that is needed to check the visibility of the outer blocks.
+	 */
+	public static Cuboid getCacheBounds(Portal portal, int viewDist) {
+		
+		Vector[] cacheCorners = getCacheCorners(portal, viewDist);
+		Vector min = cacheCorners[0].clone();
+		Vector max = cacheCorners[0].clone();
+		
+		for (Vector corner : cacheCorners) {
+			min = Vector.getMinimum(min, corner);
+			max = Vector.getMaximum(max, corner);
+		}
+		
+		return new Cuboid(
+				new BlockVec(min.getBlockX() - 1, min.getBlockY() - 1, min.getBlockZ() - 1),
+				new BlockVec(max.getBlockX() + 1, max.getBlockY() + 1, max.getBlockZ() + 1));
+	}
+	
+	/**
+	 * Returns the 2 corners of the front block cache followed by the 2 corners of the back block cache of a portal.
+	 */
+	private static Vector[] getCacheCorners(Portal portal, int viewDist) {
 		
 		//increasing the view distance by 1 to fit in the extra layer of border
 		viewDist += 1;
@@ -39,28 +115,19 @@ public class BlockCacheFactory {
 		int minPortalExtent = (int) Math.min(portalRect.width(), portalRect.height());
 		int frontViewDist = minPortalExtent + 2 * viewDist;
 		
-		BlockCache front = copyBlocksInBounds(
-				portal,
+		return new Vector[]{
 				cacheCorner1.clone().add(portalFacing),
 				cacheCorner2.clone().add(portalFacing.clone().multiply(frontViewDist)),
-				portalFacing,
-				cacheBorderBlockType);
-		
-		BlockCache back = copyBlocksInBounds(
-				portal,
 				cacheCorner1.clone().subtract(portalFacing.clone().multiply(frontViewDist - 1)),
-				cacheCorner2,
-				portalFacing.clone().multiply(-1),
-				cacheBorderBlockType);
-		
-		return new AbstractMap.SimpleEntry<>(front, back);
+				cacheCorner2};
 	}
 	
 	private static BlockCache copyBlocksInBounds(Portal portal,
 	                                             Vector cacheCorner1,
 	                                             Vector cacheCorner2,
 	                                             Vector cacheFacing,
-	                                             BlockType cacheBorderBlockType) {
+	                                             BlockType cacheBorderBlockType,
+	                                             BlockSource blockSource) {
 		
 		Vector cacheMin = Vector.getMinimum(cacheCorner1, cacheCorner2);
 		Vector cacheMax = Vector.getMaximum(cacheCorner1, cacheCorner2);
@@ -76,7 +143,6 @@ public class BlockCacheFactory {
 			throw new IllegalArgumentException("Cannot create a BlockCache smaller than 1 block.");
 		}
 		
-		World cacheWorld = portal.getWorld();
 		BlockVec cacheSize = new BlockVec(cacheMax.clone().subtract(cacheMin));
 		
 		BlockCache blockCache = new BlockCache(
@@ -86,29 +152,120 @@ public class BlockCacheFactory {
 				new BlockVec(cacheFacing),
 				cacheBorderBlockType);
 		
+		for (long chunkKey : blockCache.getChunkKeys()) {
+			if (!blockSource.isChunkAvailable(ChunkUtils.getChunkX(chunkKey), ChunkUtils.getChunkZ(chunkKey))) {
+				blockCache.getMissingChunks().add(chunkKey);
+			}
+		}
+		
+		copyOcclusion(blockCache, blockSource, minX - 1, minZ - 1, maxX + 1, maxZ + 1);
+		
 		for (int x = minX; x < maxX; x++) {
 			for (int y = minY; y < maxY; y++) {
+				for (int z = minZ; z < maxZ; z++) {
+					blockCache.setBlockTypeAt(x, y, z, copyBlock(blockCache, blockSource, x, y, z));
+				}
+			}
+		}
+		
+		return blockCache;
+	}
+	
+	/**
+	 * Copies whether blocks are occluding or not for all blocks of the cache and it's margin in the given x and z bounds (max exclusive).
+	 * Blocks in chunks that are not available count as occluding.
+	 */
+	private static void copyOcclusion(BlockCache blockCache, BlockSource blockSource, int minX, int minZ, int maxX, int maxZ) {
+		
+		int minY = blockCache.getMin().getY() - 1;
+		int maxY = blockCache.getMax().getY() + 1;
+		
+		for (int x = minX; x < maxX; x++) {
+			for (int z = minZ; z < maxZ; z++) {
+				
+				boolean isChunkAvailable = blockSource.isChunkAvailable(x >> 4, z >> 4);
+				
+				for (int y = minY; y < maxY; y++) {
+					blockCache.setOccluding(x, y, z, !isChunkAvailable || blockSource.isOccluding(x, y, z));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the BlockType that should be stored in the cache for the block at the given location
+	 * or null if the block is not visible at all.
+	 */
+	private static BlockType copyBlock(BlockCache blockCache, BlockSource blockSource, int x, int y, int z) {
+		
+		if (!blockCache.isBlockNowVisible(x, y, z)) {
+			return null;
+		}
+		
+		//blocks in chunks that are not loaded yet are displayed like the cache border
+		if (!blockSource.isChunkAvailable(x >> 4, z >> 4)) {
+			return blockCache.getBorderBlockType();
+		}
+		
+		BlockType blockType = blockSource.getBlockTypeAt(x, y, z);
+		
+		//make sure that the cache border onl consists of occluding blocks
+		if (!blockType.isOccluding() && blockCache.isBorder(x, y, z)) {
+			blockType = blockCache.getBorderBlockType();
+		}
+		
+		return blockType;
+	}
+	
+	/**
+	 * Copies the blocks of a chunk that was missing in a block cache until now.
+	 * Blocks next to the chunk are copied again as well because their visibility might have changed.
+	 *
+	 * @return all block copies that changed in the process
+	 */
+	public static Map<BlockVec, BlockType> copyMissingChunk(BlockCache cache, int chunkX, int chunkZ, BlockSource blockSource) {
+		
+		Map<BlockVec, BlockType> changedBlocks = new HashMap<>();
+		
+		if (!cache.getMissingChunks().remove(ChunkUtils.getChunkKey(chunkX, chunkZ))) {
+			return changedBlocks;
+		}
+		
+		BlockVec cacheMin = cache.getMin();
+		BlockVec cacheMax = cache.getMax();
+		
+		copyOcclusion(cache, blockSource,
+		              Math.max(cacheMin.getX() - 1, chunkX << 4),
+		              Math.max(cacheMin.getZ() - 1, chunkZ << 4),
+		              Math.min(cacheMax.getX() + 1, (chunkX << 4) + 16),
+		              Math.min(cacheMax.getZ() + 1, (chunkZ << 4) + 16));
+		
+		int minX = Math.max(cacheMin.getX(), (chunkX << 4) - 1);
+		int minZ = Math.max(cacheMin.getZ(), (chunkZ << 4) - 1);
+		int maxX = Math.min(cacheMax.getX(), (chunkX << 4) + 17);
+		int maxZ = Math.min(cacheMax.getZ(), (chunkZ << 4) + 17);
+		
+		for (int x = minX; x < maxX; x++) {
+			for (int y = cacheMin.getY(); y < cacheMax.getY(); y++) {
 				for (int z = minZ; z < maxZ; z++) {
 					
-					Block block = new Location(cacheWorld, x, y, z).getBlock();
-					
-					if (!isVisible(block)) {
+					//leave blocks in other unloaded chunks as they are
+					if (!blockSource.isChunkAvailable(x >> 4, z >> 4)) {
 						continue;
 					}
 					
-					BlockType blockType = BlockType.of(block);
+					BlockType oldBlockType = cache.getBlockTypeAt(x, y, z);
+					BlockType newBlockType = copyBlock(cache, blockSource, x, y, z);
 					
-					//make sure that the cache border onl consists of occluding blocks
-					if (!blockType.isOccluding() && blockCache.isBorder(x, y, z)) {
-						blockType = cacheBorderBlockType.clone();
+					if (!Objects.equals(oldBlockType, newBlockType)) {
+						cache.setBlockTypeAt(x, y, z, newBlockType);
+						changedBlocks.put(new BlockVec(x, y, z), newBlockType);
 					}
-					
-					blockCache.setBlockTypeAt(x, y, z, blockType);
 				}
 			}
 		}
 		
-		return blockCache;
+		return changedBlocks;
 	}
 	
 	public static Map.Entry<ProjectionCache, ProjectionCache> createProjectionCaches(Portal projectingPortal,
@@ -122,7 +279,7 @@ public class BlockCacheFactory {
 	}
 	
 	/**
-	 * Creates projection cache from the content of a block cache.
+	 * Creates projection cache that displays the content of a block cache. The blocks are not copied but read from the block cache on demand.
 	 *
 	 * @param sourceCache   block cache to be copied
 	 * @param linkTransform transformation between the locations of the block cache and the projection cache
@@ -141,92 +298,181 @@ public class BlockCacheFactory {
 		BlockVec projectionMax = BlockVec.getMaximum(corner1, corner2).add(1, 0, 1);
 		BlockVec projectionSize = projectionMax.clone().subtract(projectionMin);
 		
-		ProjectionCache projectionCache = new ProjectionCache(
+		return new ProjectionCache(
 				projectingPortal,
 				projectionMin,
 				projectionSize,
-				linkTransform.transformVec(sourceCache.getFacing()),
-				sourceCache.getBorderBlockType(),
 				sourceCache,
 				linkTransform);
-		
-		for (int x = sourceMin.getX(); x < sourceMax.getX(); x++) {
-			for (int y = sourceMin.getY(); y < sourceMax.getY(); y++) {
-				for (int z = sourceMin.getZ(); z < sourceMax.getZ(); z++) {
-					
-					BlockVec blockPos = new BlockVec(x, y, z);
-					BlockType blockType = sourceCache.getBlockTypeAt(blockPos);
-					
-					if (blockType == null) {
-						continue;
-					}
-					
-					BlockType rotatedBlockType = blockType.clone().rotate(linkTransform.getQuarterTurns());
-					BlockVec newBlockPos = linkTransform.transformVec(blockPos);
-					projectionCache.setBlockTypeAt(newBlockPos, rotatedBlockType);
-				}
-			}
-		}
-		
-		return projectionCache;
 	}
 	
 	/**
 	 * Updates a block that changed it's appearance in a block cache, if it's not part of the cache border.
+	 * Blocks in the margin around the cache only update the visibility of the blocks next to them.
 	 *
 	 * @return all block copies that were affected and updated in the process.
 	 */
 	public static Map<BlockVec, BlockType> updateBlockInCache(
 			BlockCache cache,
 			Block changedBlock,
-			BlockType newBlockType,
-			boolean blockWasOccluding) {
-		
+			BlockType newBlockType) {
 		
 		BlockVec blockPos = new BlockVec(changedBlock);
 		Map<BlockVec, BlockType> changedBlocks = new HashMap<>();
 		
+		boolean blockWasOccluding = cache.isOccluding(blockPos);
+		boolean blockIsOccluding = newBlockType.isOccluding();
+		cache.setOccluding(blockPos, blockIsOccluding);
+		
+		if (blockWasOccluding != blockIsOccluding) {
+			
+			if (blockIsOccluding) {
+				changedBlocks.putAll(hideCoveredBlocks(cache, blockPos));
+			} else {
+				changedBlocks.putAll(reincludeRevealedBlocks(cache, blockPos));
+			}
+		}
+		
+		if (!cache.contains(blockPos)) {
+			return changedBlocks;
+		}
+		
+		//return no cache updates when the block is hidden as border anyway
+		if (blockWasOccluding == blockIsOccluding && !blockWasOccluding && cache.isBorder(blockPos)) {
+			return changedBlocks;
+		}
+		
 		//any new transparent block in the cache border will be replaced with the border block type (of course)
-		if (!newBlockType.isOccluding() && cache.isBorder(blockPos)) {
+		if (!blockIsOccluding && cache.isBorder(blockPos)) {
 			newBlockType = cache.getBorderBlockType();
 		}
 		
-		//if the block did not change it's occlusion then only the block itself needs to be updated
-		if (blockWasOccluding == newBlockType.isOccluding()) {
+		if (!cache.isBlockNowVisible(blockPos)) {
 			
-			//return no cache updates when the block is hidden as border anyway
-			if (!blockWasOccluding && cache.isBorder(blockPos)) {
-				return changedBlocks;
+			if (cache.isBlockListedVisible(blockPos)) {
+				cache.removeBlockDataAt(blockPos);
+				changedBlocks.put(blockPos, null);
 			}
 			
-			cache.setBlockTypeAt(blockPos, newBlockType);
-			changedBlocks.put(blockPos, newBlockType);
 			return changedBlocks;
 		}
 		
-		if (newBlockType.isOccluding()) {
-			changedBlocks.putAll(hideCoveredBlocks(cache, blockPos));
+		cache.setBlockTypeAt(blockPos, newBlockType);
+		changedBlocks.put(blockPos, newBlockType);
+		return changedBlocks;
+	}
+	
+	/**
+	 * Updates many changed blocks in a block cache at once, like the blocks of an explosion or a growing tree.
+	 * First the occlusion of all blocks is updated, then the visibility of the changed blocks
+	 * and their direct neighbours is checked only once, no matter how many of their neighbours changed.
+	 *
+	 * @param newBlockTypes the changed block positions (inside the cache or it's margin) with their new block types
+	 * @return all block copies that were affected and updated in the process.
+	 */
+	public static Map<BlockVec, BlockType> updateBlocksInCache(
+			BlockCache cache,
+			Map<BlockVec, BlockType> newBlockTypes) {
+		
+		Map<BlockVec, BlockType> changedBlocks = new HashMap<>();
+		Set<BlockVec> revealedOrCoveredBlocks = new HashSet<>();
+		Set<BlockVec> unchangedTransparentBlocks = new HashSet<>();
+		
+		for (Map.Entry<BlockVec, BlockType> entry : newBlockTypes.entrySet()) {
 			
-		} else {
-			changedBlocks.putAll(reincludeRevealedBlocks(cache, blockPos));
+			BlockVec blockPos = entry.getKey();
+			boolean blockWasOccluding = cache.isOccluding(blockPos);
+			boolean blockIsOccluding = entry.getValue().isOccluding();
+			
+			if (blockWasOccluding == blockIsOccluding) {
+				
+				if (!blockIsOccluding) {
+					unchangedTransparentBlocks.add(blockPos);
+				}
+				continue;
+			}
+			
+			cache.setOccluding(blockPos, blockIsOccluding);
+			
+			for (BlockVec facing : AXES) {
+				revealedOrCoveredBlocks.add(blockPos.clone().add(facing));
+			}
+		}
+		
+		World cacheWorld = cache.getWorld();
+		
+		//neighbours that changed themselves get their new block type below
+		for (BlockVec blockPos : revealedOrCoveredBlocks) {
+			
+			if (newBlockTypes.containsKey(blockPos) || !cache.contains(blockPos)) {
+				continue;
+			}
+			
+			boolean isListedVisible = cache.isBlockListedVisible(blockPos);
+			boolean isNowVisible = cache.isBlockNowVisible(blockPos);
+			
+			if (isListedVisible && !isNowVisible) {
+				
+				cache.removeBlockDataAt(blockPos);
+				changedBlocks.put(blockPos, null);
+				
+			} else if (!isListedVisible && isNowVisible) {
+				
+				BlockType revealedBlockType = readRevealedBlockType(cache, cacheWorld, blockPos);
+				cache.setBlockTypeAt(blockPos, revealedBlockType);
+				changedBlocks.put(blockPos, revealedBlockType);
+			}
+		}
+		
+		for (Map.Entry<BlockVec, BlockType> entry : newBlockTypes.entrySet()) {
+			
+			BlockVec blockPos = entry.getKey();
+			BlockType newBlockType = entry.getValue();
+			
+			if (!cache.contains(blockPos)) {
+				continue;
+			}
+			
+			boolean isBorder = cache.isBorder(blockPos);
+			
+			//transparent blocks that stay transparent in the border are hidden behind the border block type anyway
+			if (isBorder && unchangedTransparentBlocks.contains(blockPos)) {
+				continue;
+			}
+			
+			if (!newBlockType.isOccluding() && isBorder) {
+				newBlockType = cache.getBorderBlockType();
+			}
+			
+			if (!cache.isBlockNowVisible(blockPos)) {
+				
+				if (cache.isBlockListedVisible(blockPos)) {
+					cache.removeBlockDataAt(blockPos);
+					changedBlocks.put(blockPos, null);
+				}
+				continue;
+			}
+			
+			cache.setBlockTypeAt(blockPos, newBlockType);
+			changedBlocks.put(blockPos, newBlockType);
 		}
 		
-		changedBlocks.put(blockPos, newBlockType);
 		return changedBlocks;
 	}
 	
 	/**
 	 * Removes all block copies from a block cache that have been covered by a new occluding block.
+	 * The occlusion of the new block has to be updated in the cache beforehand.
 	 */
 	private static Map<BlockVec, BlockType> hideCoveredBlocks(BlockCache cache, BlockVec addedBlock) {
 		
 		Map<BlockVec, BlockType> changedBlocks = new HashMap<>();
 		
-		for (BlockVec facing : FacingUtils.getAxesBlockVecs()) {
+		for (BlockVec facing : AXES) {
 			
 			BlockVec touchingBlockPos = addedBlock.clone().add(facing);
 			
-			if (cache.contains(touchingBlockPos) && !cache.isBlockNowVisible(touchingBlockPos)) {
+			if (cache.isBlockListedVisible(touchingBlockPos) && !cache.isBlockNowVisible(touchingBlockPos)) {
 				cache.removeBlockDataAt(touchingBlockPos);
 				changedBlocks.put(touchingBlockPos.clone(), null);
 			}
@@ -237,6 +483,7 @@ public class BlockCacheFactory {
 	
 	/**
 	 * Re-includes block copies to the cache that have been revealed by a new transparent block.
+	 * The occlusion of the new block has to be updated in the cache beforehand.
 	 *
 	 * @return a map of all changed blocks
 	 */
@@ -245,7 +492,7 @@ public class BlockCacheFactory {
 		Map<BlockVec, BlockType> changedBlocks = new HashMap<>();
 		World cacheWorld = cache.getWorld();
 		
-		for (BlockVec facing : FacingUtils.getAxesBlockVecs()) {
+		for (BlockVec facing : AXES) {
 			
 			BlockVec touchingBlockPos = removedBlock.clone().add(facing);
 			
@@ -253,15 +500,7 @@ public class BlockCacheFactory {
 				continue;
 			}
 			
-			BlockType touchingBlockType = BlockType.of(cacheWorld.getBlockAt(
-					touchingBlockPos.getX(),
-					touchingBlockPos.getY(),
-					touchingBlockPos.getZ()));
-			
-			if (!touchingBlockType.isOccluding() && cache.isBorder(touchingBlockPos)) {
-				touchingBlockType = cache.getBorderBlockType();
-			}
-			
+			BlockType touchingBlockType = readRevealedBlockType(cache, cacheWorld, touchingBlockPos);
 			cache.setBlockTypeAt(touchingBlockPos, touchingBlockType);
 			changedBlocks.put(touchingBlockPos, touchingBlockType);
 		}
@@ -269,14 +508,28 @@ public class BlockCacheFactory {
 		return changedBlocks;
 	}
 	
-	public static boolean isVisible(Block block) {
+	/**
+	 * Returns the block type a block that became visible should be displayed with in the cache.
+	 * Only the type of the revealed block has to be read from the world, it's visibility is known from the occlusion.
+	 */
+	private static BlockType readRevealedBlockType(BlockCache cache, World cacheWorld, BlockVec blockPos) {
 		
-		for (BlockFace face : FacingUtils.getAxesFaces()) {
-			if (!block.getRelative(face).getType().isOccluding()) {
-				return true;
-			}
+		BlockType blockType;
+		
+		if (cache.getMissingChunks().contains(ChunkUtils.getChunkKey(blockPos.getX() >> 4, blockPos.getZ() >> 4))) {
+			blockType = cache.getBorderBlockType();
+			
+		} else {
+			blockType = BlockType.of(cacheWorld.getBlockAt(
+					blockPos.getX(),
+					blockPos.getY(),
+					blockPos.getZ()));
+		}
+		
+		if (!blockType.isOccluding() && cache.isBorder(blockPos)) {
+			blockType = cache.getBorderBlockType();
 		}
 		
-		return false;
+		return blockType;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+
+/**
+ * A read only view on the blocks of a world that block caches can be copied from.
+ */
+public interface BlockSource {
+	
+	/**
+	 * Returns true if the blocks of the chunk can be read from this source.
+	 * Blocks of unavailable chunks must not be requested.
+	 */
+	boolean isChunkAvailable(int chunkX, int chunkZ);
+	
+	/**
+	 * Returns a new BlockType of the block at the given location.
+	 */
+	BlockType getBlockTypeAt(int x, int y, int z);
+	
+	/**
+	 * Returns true if the block at the given location fully blocks the view.
+	 */
+	boolean isOccluding(int x, int y, int z);
+}
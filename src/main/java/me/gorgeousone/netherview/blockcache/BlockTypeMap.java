@@ -0,0 +1,252 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+
+import java.util.Arrays;
+
+/**
+ * A map from block locations to BlockTypes that stores the locations as packed longs in an open addressing hash table.
+ * It avoids creating a BlockVec and a map entry for every block, which matters for the thousands of blocks sent to players on every move.
+ * Null values are not supported.
+ */
+public class BlockTypeMap {
+	
+	private static final int MIN_CAPACITY = 16;
+	
+	private long[] keys;
+	private BlockType[] values;
+	private int size;
+	private int mask;
+	private int resizeThreshold;
+	
+	public BlockTypeMap() {
+		this(MIN_CAPACITY);
+	}
+	
+	/**
+	 * @param expectedSize count of blocks the map should be able to hold without resizing
+	 */
+	public BlockTypeMap(int expectedSize) {
+		allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1));
+	}
+	
+	/**
+	 * Creates a copy of the other map.
+	 */
+	public BlockTypeMap(BlockTypeMap other) {
+		
+		keys = other.keys.clone();
+		values = other.values.clone();
+		size = other.size;
+		mask = other.mask;
+		resizeThreshold = other.resizeThreshold;
+	}
+	
+	/**
+	 * Packs block coordinates into one long similar to Minecraft's block positions (26 bits for x and z, 12 bits for y).
+	 */
+	public static long toKey(int x, int y, int z) {
+		return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (long) y & 0xFFF;
+	}
+	
+	public static long toKey(BlockVec blockPos) {
+		return toKey(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+	}
+	
+	public static int getX(long key) {
+		return (int) (key >> 38);
+	}
+	
+	public static int getY(long key) {
+		return (int) (key << 52 >> 52);
+	}
+	
+	public static int getZ(long key) {
+		return (int) (key << 26 >> 38);
+	}
+	
+	public static BlockVec toBlockVec(long key) {
+		return new BlockVec(getX(key), getY(key), getZ(key));
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public boolean containsKey(long key) {
+		return values[findSlot(key)] != null;
+	}
+	
+	public boolean containsKey(BlockVec blockPos) {
+		return containsKey(toKey(blockPos));
+	}
+	
+	/**
+	 * Returns the BlockType stored at the location or null if none is stored there.
+	 */
+	public BlockType get(long key) {
+		return values[findSlot(key)];
+	}
+	
+	public BlockType get(BlockVec blockPos) {
+		return get(toKey(blockPos));
+	}
+	
+	/**
+	 * Stores the BlockType at the location and returns the BlockType that was stored there before (or null).
+	 */
+	public BlockType put(long key, BlockType blockType) {
+		
+		if (blockType == null) {
+			throw new IllegalArgumentException("Cannot store null in a BlockTypeMap.");
+		}
+		
+		int slot = findSlot(key);
+		BlockType oldBlockType = values[slot];
+		
+		keys[slot] = key;
+		values[slot] = blockType;
+		
+		if (oldBlockType == null && ++size > resizeThreshold) {
+			allocate(keys.length * 2);
+		}
+		
+		return oldBlockType;
+	}
+	
+	public BlockType put(int x, int y, int z, BlockType blockType) {
+		return put(toKey(x, y, z), blockType);
+	}
+	
+	public void putAll(BlockTypeMap other) {
+		other.forEach(this::put);
+	}
+	
+	/**
+	 * Removes the BlockType at the location and returns it (or null if none was stored there).
+	 */
+	public BlockType remove(long key) {
+		
+		int slot = findSlot(key);
+		BlockType oldBlockType = values[slot];
+		
+		if (oldBlockType != null) {
+			removeAt(slot);
+		}
+		
+		return oldBlockType;
+	}
+	
+	/**
+	 * Removes all locations that are contained in the other map, regardless of their BlockType.
+	 */
+	public void removeAll(BlockTypeMap other) {
+		
+		if (isEmpty()) {
+			return;
+		}
+		
+		other.forEach((key, blockType) -> remove(key));
+	}
+	
+	public void clear() {
+		
+		if (size == 0) {
+			return;
+		}
+		
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	
+	/**
+	 * Calls the consumer for every stored location and BlockType. The map must not be modified during the iteration.
+	 */
+	public void forEach(EntryConsumer consumer) {
+		
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the slot of the key or the empty slot where it would be inserted.
+	 */
+	private int findSlot(long key) {
+		
+		int slot = hash(key) & mask;
+		
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * Empties the slot and moves following entries of the same probe sequence back to close the gap.
+	 */
+	private void removeAt(int slot) {
+		
+		int gap = slot;
+		int next = (slot + 1) & mask;
+		
+		while (values[next] != null) {
+			
+			int idealSlot = hash(keys[next]) & mask;
+			
+			//the entry can be moved if the gap lies between it's ideal slot and it's current slot
+			if (((next - idealSlot) & mask) >= ((next - gap) & mask)) {
+				
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			
+			next = (next + 1) & mask;
+		}
+		
+		values[gap] = null;
+		size--;
+	}
+	
+	private void allocate(int capacity) {
+		
+		long[] oldKeys = keys;
+		BlockType[] oldValues = values;
+		
+		keys = new long[capacity];
+		values = new BlockType[capacity];
+		mask = capacity - 1;
+		resizeThreshold = capacity / 2;
+		size = 0;
+		
+		if (oldValues == null) {
+			return;
+		}
+		
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+	
+	private static int hash(long key) {
+		
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ hash >>> 32);
+	}
+	
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long key, BlockType blockType);
+	}
+}
\ No newline at end of file
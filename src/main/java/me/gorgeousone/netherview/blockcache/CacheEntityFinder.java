@@ -0,0 +1,75 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.utils.ChunkUtils;
+import me.gorgeousone.netherview.wrapper.WrappedBoundingBox;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the entities intersecting a cache by searching the chunks the cache is located in.
+ * The entities of unloaded chunks that had to be loaded once are remembered until the chunks get loaded again.
+ */
+class CacheEntityFinder {
+	
+	private final ReadableBlockCache cache;
+	private final long[] chunkKeys;
+	private final Map<Long, Set<Entity>> unloadedChunks;
+	
+	CacheEntityFinder(ReadableBlockCache cache, long[] chunkKeys) {
+		
+		this.cache = cache;
+		this.chunkKeys = chunkKeys;
+		this.unloadedChunks = new HashMap<>();
+	}
+	
+	Set<Entity> getEntities(boolean loadChunks) {
+		
+		Set<Entity> containedEntities = new HashSet<>();
+		World world = cache.getWorld();
+		
+		for (long chunkKey : chunkKeys) {
+			
+			int chunkX = ChunkUtils.getChunkX(chunkKey);
+			int chunkZ = ChunkUtils.getChunkZ(chunkKey);
+			
+			if (world.isChunkLoaded(chunkX, chunkZ)) {
+				
+				addContainedEntities(world.getChunkAt(chunkX, chunkZ), containedEntities, false);
+				unloadedChunks.remove(chunkKey);
+			
+			} else if (loadChunks) {
+				
+				unloadedChunks.computeIfAbsent(chunkKey, set -> addContainedEntities(world.getChunkAt(chunkX, chunkZ), new HashSet<>(), true));
+				containedEntities.addAll(unloadedChunks.get(chunkKey));
+			}
+		}
+		
+		return containedEntities;
+	}
+	
+	private Set<Entity> addContainedEntities(Chunk chunk, Set<Entity> setToAddTo, boolean unloadChunk) {
+		
+		Entity[] chunkEntities = chunk.getEntities();
+		
+		for (int i = 0; i < chunkEntities.length; i++) {
+			
+			Entity entity = chunkEntities[i];
+			
+			if (WrappedBoundingBox.of(entity).intersectsBlockCache(cache)) {
+				setToAddTo.add(entity);
+			}
+		}
+		
+		if (unloadChunk) {
+			cache.getWorld().unloadChunk(chunk);
+		}
+		
+		return setToAddTo;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,273 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact 3D storage for BlockTypes similar to Minecraft's chunk sections.
+ * Every distinct BlockType is stored once in a palette, the cells only store bit-packed indices pointing into that palette.
+ * Palette index 0 is reserved for null (not visible) cells.
+ * BlockTypes returned by this storage are shared between all cells with the same type and must be cloned before modifying them.
+ */
+public class PalettedBlockStorage {
+	
+	private static final int LONG_BITS = 64;
+	
+	//rough JVM object sizes used to estimate the memory footprint of the storage
+	private static final int OBJECT_HEADER_BYTES = 16;
+	private static final int REFERENCE_BYTES = 8;
+	private static final int MAP_ENTRY_BYTES = 48;
+	
+	private final int sizeX;
+	private final int sizeY;
+	private final int sizeZ;
+	
+	//the palette and the packed indices are replaced together as one object when their format changes,
+	//so threads reading the storage never decode indices with the wrong format or palette.
+	//a palette that only grows by appending shares the index array with the previous one and is published before its new ids are written
+	private volatile PackedIds packedIds;
+	private final Map<BlockType, Integer> paletteIds;
+	
+	public PalettedBlockStorage(int sizeX, int sizeY, int sizeZ) {
+		
+		if (sizeX < 1 || sizeY < 1 || sizeZ < 1) {
+			throw new IllegalArgumentException("Cannot create a block storage smaller than 1 block.");
+		}
+		
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		
+		this.paletteIds = new HashMap<>();
+		this.packedIds = new PackedIds(1, volume(), new BlockType[]{null});
+	}
+	
+	public int getSizeX() {
+		return sizeX;
+	}
+	
+	public int getSizeY() {
+		return sizeY;
+	}
+	
+	public int getSizeZ() {
+		return sizeZ;
+	}
+	
+	/**
+	 * Returns the count of distinct BlockTypes currently listed in the palette (excluding null).
+	 */
+	public int getPaletteSize() {
+		return packedIds.palette.length - 1;
+	}
+	
+	public int getBitsPerEntry() {
+		return packedIds.bitsPerEntry;
+	}
+	
+	/**
+	 * Returns the BlockType at the given position relative to the storage's origin or null if none is stored.
+	 * This can be called from any thread while the storage is modified on the main thread.
+	 */
+	public BlockType get(int x, int y, int z) {
+		
+		int index = index(x, y, z);
+		PackedIds ids = packedIds;
+		int id = ids.get(index);
+		
+		//the id of a palette entry appended after this thread read the palette
+		if (id >= ids.palette.length) {
+			ids = packedIds;
+			id = ids.get(index);
+		}
+		
+		return ids.palette[id];
+	}
+	
+	/**
+	 * Stores the BlockType at the given position relative to the storage's origin. Null clears the cell.
+	 * The storage must only be modified by one thread at a time.
+	 */
+	public void set(int x, int y, int z, BlockType blockType) {
+		
+		int index = index(x, y, z);
+		
+		if (blockType == null) {
+			packedIds.set(index, 0);
+			return;
+		}
+		
+		Integer id = paletteIds.get(blockType);
+		
+		if (id == null) {
+			id = addToPalette(blockType);
+		}
+		
+		packedIds.set(index, id);
+	}
+	
+	/**
+	 * Returns an estimate of the heap memory in bytes occupied by the index array and the palette of this storage.
+	 * The BlockTypes in the palette themselves are not included as they are mostly shared small wrappers.
+	 */
+	public long getBytesUsed() {
+		
+		PackedIds ids = packedIds;
+		long dataBytes = OBJECT_HEADER_BYTES + (long) ids.data.length * Long.BYTES;
+		long paletteBytes = OBJECT_HEADER_BYTES + (long) ids.palette.length * REFERENCE_BYTES;
+		long paletteIdBytes = OBJECT_HEADER_BYTES + (long) paletteIds.size() * MAP_ENTRY_BYTES;
+		
+		return dataBytes + paletteBytes + paletteIdBytes;
+	}
+	
+	private int volume() {
+		return sizeX * sizeY * sizeZ;
+	}
+	
+	private int index(int x, int y, int z) {
+		
+		if (x < 0 || x >= sizeX || y < 0 || y >= sizeY || z < 0 || z >= sizeZ) {
+			throw new IndexOutOfBoundsException("Position " + x + ", " + y + ", " + z + " is outside of the block storage.");
+		}
+		
+		return (x * sizeY + y) * sizeZ + z;
+	}
+	
+	private int addToPalette(BlockType blockType) {
+		
+		if (packedIds.palette.length > packedIds.entryMask) {
+			
+			//try to make space by dropping palette entries that are not used anymore before widening the entries
+			compactPalette();
+			
+			if (packedIds.palette.length > packedIds.entryMask) {
+				resize(packedIds.bitsPerEntry + 1);
+			}
+		}
+		
+		BlockType[] palette = packedIds.palette;
+		BlockType[] newPalette = Arrays.copyOf(palette, palette.length + 1);
+		
+		int id = palette.length;
+		newPalette[id] = blockType;
+		paletteIds.put(blockType, id);
+		packedIds = packedIds.withAppendedPalette(newPalette);
+		return id;
+	}
+	
+	/**
+	 * Removes all BlockTypes from the palette that are not referenced by any cell anymore and re-indexes the remaining ones.
+	 */
+	private void compactPalette() {
+		
+		PackedIds ids = packedIds;
+		BlockType[] palette = ids.palette;
+		int volume = volume();
+		boolean[] isUsed = new boolean[palette.length];
+		
+		for (int i = 0; i < volume; i++) {
+			isUsed[ids.get(i)] = true;
+		}
+		
+		int[] newIds = new int[palette.length];
+		List<BlockType> newPalette = new ArrayList<>();
+		newPalette.add(null);
+		
+		for (int id = 1; id < isUsed.length; id++) {
+			if (isUsed[id]) {
+				newIds[id] = newPalette.size();
+				newPalette.add(palette[id]);
+			}
+		}
+		
+		if (newPalette.size() == palette.length) {
+			return;
+		}
+		
+		PackedIds compactedIds = new PackedIds(ids.bitsPerEntry, volume, newPalette.toArray(new BlockType[0]));
+		
+		for (int i = 0; i < volume; i++) {
+			compactedIds.set(i, newIds[ids.get(i)]);
+		}
+		
+		packedIds = compactedIds;
+		paletteIds.clear();
+		
+		for (int id = 1; id < newPalette.size(); id++) {
+			paletteIds.put(newPalette.get(id), id);
+		}
+	}
+	
+	/**
+	 * Re-packs all indices with a new count of bits per entry.
+	 */
+	private void resize(int newBitsPerEntry) {
+		
+		PackedIds ids = packedIds;
+		int volume = volume();
+		PackedIds resizedIds = new PackedIds(newBitsPerEntry, volume, ids.palette);
+		
+		for (int i = 0; i < volume; i++) {
+			resizedIds.set(i, ids.get(i));
+		}
+		
+		packedIds = resizedIds;
+	}
+	
+	/**
+	 * The bit-packed palette indices of all cells together with the palette they point into.
+	 */
+	private static class PackedIds {
+		
+		private final int bitsPerEntry;
+		private final int entriesPerLong;
+		private final long entryMask;
+		private final long[] data;
+		private final BlockType[] palette;
+		
+		PackedIds(int bitsPerEntry, int entryCount, BlockType[] palette) {
+			this(bitsPerEntry, new long[longsNeeded(entryCount, LONG_BITS / bitsPerEntry)], palette);
+		}
+		
+		private PackedIds(int bitsPerEntry, long[] data, BlockType[] palette) {
+			
+			//entries never span two longs, so a few bits per long may stay unused
+			this.bitsPerEntry = bitsPerEntry;
+			this.entriesPerLong = LONG_BITS / bitsPerEntry;
+			this.entryMask = (1L << bitsPerEntry) - 1;
+			this.data = data;
+			this.palette = palette;
+		}
+		
+		/**
+		 * Returns a copy with a palette that starts with all entries of the current one. The indices are shared,
+		 * so the copy has to be published before any ids of the appended entries are written.
+		 */
+		PackedIds withAppendedPalette(BlockType[] newPalette) {
+			return new PackedIds(bitsPerEntry, data, newPalette);
+		}
+		
+		int get(int index) {
+			
+			int longIndex = index / entriesPerLong;
+			int bitOffset = (index % entriesPerLong) * bitsPerEntry;
+			return (int) ((data[longIndex] >>> bitOffset) & entryMask);
+		}
+		
+		void set(int index, int id) {
+			
+			int longIndex = index / entriesPerLong;
+			int bitOffset = (index % entriesPerLong) * bitsPerEntry;
+			data[longIndex] = data[longIndex] & ~(entryMask << bitOffset) | ((long) id << bitOffset);
+		}
+		
+		private static int longsNeeded(int entryCount, int entriesPerLong) {
+			return (entryCount + entriesPerLong - 1) / entriesPerLong;
+		}
+	}
+}
@@ -1,33 +1,111 @@
 package me.gorgeousone.netherview.blockcache;
 
 import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.geometry.viewfrustum.ViewFrustumCache;
 import me.gorgeousone.netherview.portal.Portal;
+import me.gorgeousone.netherview.utils.ChunkUtils;
 import me.gorgeousone.netherview.wrapper.Axis;
 import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The equivalent to a BlockCache used to store information about all blocks that will be displayed in the animation of a portal.
  * For each of the 2 sides of a portal there will be a separate ProjectionCache.
+ * A projection cache does not store any blocks itself but reads them from it's source cache through the inverted link transform.
+ * Blocks can only be changed in the source cache.
  */
-public class ProjectionCache extends BlockCache {
+public class ProjectionCache implements ReadableBlockCache {
+	
+	//estimated heap memory of a rotated BlockType and it's map entry
+	private static final int ROTATED_BLOCK_TYPE_BYTES = 48;
+	
+	private final Portal portal;
+	private final BlockVec min;
+	private final BlockVec max;
+	private final CacheEntityFinder entityFinder;
 	
 	private final BlockCache sourceCache;
 	private final Transform linkTransform;
 	private final int cacheLength;
 	
+	private final int quarterTurns;
+	private final Map<BlockType, BlockType> rotatedBlockTypes;
+	
+	//the inverted link transform as integer math: source = rotation * (projection - offset) + rotCenter
+	private final int offsetX;
+	private final int offsetY;
+	private final int offsetZ;
+	private final int rotCenterX;
+	private final int rotCenterZ;
+	private final int[][] inverseRotY;
+	
+	private final ViewFrustumCache viewFrustumCache;
+	
 	public ProjectionCache(Portal portal,
 	                       BlockVec offset,
 	                       BlockVec size,
-	                       BlockVec facing,
-	                       BlockType borderType,
 	                       BlockCache sourceCache,
 	                       Transform linkTransform) {
 		
-		super(portal, offset, size, facing, borderType);
+		this.portal = portal;
+		this.min = offset.clone();
+		this.max = offset.clone().add(size);
+		this.entityFinder = new CacheEntityFinder(this, ChunkUtils.getChunkKeys(min, max));
 		
 		this.sourceCache = sourceCache;
 		this.linkTransform = linkTransform;
 		this.cacheLength = portal.getAxis() == Axis.X ? size.getZ() : size.getX();
+		
+		this.quarterTurns = linkTransform.getQuarterTurns();
+		this.rotatedBlockTypes = new ConcurrentHashMap<>();
+		
+		BlockVec rotCenter = linkTransform.getBlockRotCenter();
+		BlockVec translation = linkTransform.getBlockTranslation();
+		
+		this.offsetX = rotCenter.getX() + translation.getX();
+		this.offsetY = translation.getY();
+		this.offsetZ = rotCenter.getZ() + translation.getZ();
+		this.rotCenterX = rotCenter.getX();
+		this.rotCenterZ = rotCenter.getZ();
+		
+		//the inverse of a rotation matrix is it's transposed matrix
+		this.inverseRotY = new int[][]{
+				{linkTransform.getRotYEntry(0, 0), linkTransform.getRotYEntry(1, 0)},
+				{linkTransform.getRotYEntry(0, 1), linkTransform.getRotYEntry(1, 1)}};
+		
+		this.viewFrustumCache = new ViewFrustumCache(this);
+	}
+	
+	@Override
+	public Portal getPortal() {
+		return portal;
+	}
+	
+	@Override
+	public World getWorld() {
+		return portal.getWorld();
+	}
+	
+	@Override
+	public BlockVec getMin() {
+		return min.clone();
+	}
+	
+	@Override
+	public BlockVec getMax() {
+		return max.clone();
+	}
+	
+	@Override
+	public boolean contains(double x, double y, double z) {
+		return x >= min.getX() && x < max.getX() &&
+		       y >= min.getY() && y < max.getY() &&
+		       z >= min.getZ() && z < max.getZ();
 	}
 	
 	public BlockCache getSourceCache() {
@@ -45,4 +123,58 @@ public class ProjectionCache extends BlockCache {
 	public int getCacheLength() {
 		return cacheLength;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Returns the cache of view frustums and visible blocks shared by all players viewing this projection.
+	 */
+	public ViewFrustumCache getViewFrustumCache() {
+		return viewFrustumCache;
+	}
+	
+	/**
+	 * Returns the rotated version of the BlockType in the source cache at the location the given projection location maps to.
+	 */
+	@Override
+	public BlockType getBlockTypeAt(int x, int y, int z) {
+		
+		if (!contains(x, y, z)) {
+			return null;
+		}
+		
+		int relX = x - offsetX;
+		int relZ = z - offsetZ;
+		
+		BlockType sourceBlockType = sourceCache.getBlockTypeAt(
+				inverseRotY[0][0] * relX + inverseRotY[0][1] * relZ + rotCenterX,
+				y - offsetY,
+				inverseRotY[1][0] * relX + inverseRotY[1][1] * relZ + rotCenterZ);
+		
+		return sourceBlockType == null ? null : getRotatedBlockType(sourceBlockType);
+	}
+	
+	/**
+	 * Returns a rotated copy of a BlockType from the source cache matching the orientation of this projection.
+	 * The rotated copies are shared and must not be modified.
+	 */
+	public BlockType getRotatedBlockType(BlockType sourceBlockType) {
+		
+		if (quarterTurns == 0) {
+			return sourceBlockType;
+		}
+		
+		return rotatedBlockTypes.computeIfAbsent(sourceBlockType, blockType -> blockType.clone().rotate(quarterTurns));
+	}
+	
+	@Override
+	public Set<Entity> getEntities(boolean loadChunks) {
+		return entityFinder.getEntities(loadChunks);
+	}
+	
+	/**
+	 * Returns the estimated memory used for the rotated block types and cached visible blocks. All other block data is stored in the source cache.
+	 */
+	@Override
+	public long getBytesUsed() {
+		return (long) rotatedBlockTypes.size() * ROTATED_BLOCK_TYPE_BYTES + viewFrustumCache.getBytesUsed();
+	}
+}
@@ -0,0 +1,57 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.portal.Portal;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.util.Vector;
+
+import java.util.Set;
+
+/**
+ * Read access to the blocks of a cuboid area around a portal. Implemented by block caches, which store copies of the blocks,
+ * and by projection caches, which read them from their source block cache.
+ */
+public interface ReadableBlockCache {
+	
+	Portal getPortal();
+	
+	World getWorld();
+	
+	BlockVec getMin();
+	
+	BlockVec getMax();
+	
+	boolean contains(double x, double y, double z);
+	
+	default boolean contains(BlockVec loc) {
+		return contains(loc.getX(), loc.getY(), loc.getZ());
+	}
+	
+	default boolean contains(Vector loc) {
+		return contains(loc.getX(), loc.getY(), loc.getZ());
+	}
+	
+	/**
+	 * Returns the BlockType at the given location or null if none is stored there.
+	 * The returned BlockType is shared with other blocks of the same type, so clone it before modifying it.
+	 */
+	BlockType getBlockTypeAt(int x, int y, int z);
+	
+	default BlockType getBlockTypeAt(BlockVec blockPos) {
+		return getBlockTypeAt(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+	}
+	
+	/**
+	 * Returns a set of all entities that are intersecting the cache.
+	 *
+	 * @param loadChunks whether unloaded chunks should be loaded once to read their entities or be skipped
+	 */
+	Set<Entity> getEntities(boolean loadChunks);
+	
+	/**
+	 * Returns an estimate of the heap memory in bytes used by the cache.
+	 */
+	long getBytesUsed();
+}
\ No newline at end of file
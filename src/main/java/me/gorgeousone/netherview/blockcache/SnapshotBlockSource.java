@@ -0,0 +1,76 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.utils.ChunkUtils;
+import me.gorgeousone.netherview.wrapper.blocktype.AquaticBlockType;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads blocks from chunk snapshots taken on the main thread, so block caches can be copied asynchronously.
+ * Chunks that were not loaded while taking the snapshots can optionally be skipped and are unavailable then.
+ * Blocks above or below the world height are treated as air.
+ * Only supported for servers from 1.13 on because of the different block data before the aquatic update.
+ */
+public class SnapshotBlockSource implements BlockSource {
+	
+	private final Map<Long, ChunkSnapshot> snapshots;
+	private final int maxHeight;
+	private final BlockData outOfWorldData;
+	
+	/**
+	 * Takes snapshots of all chunks containing the given block bounds. Has to be called on the main thread.
+	 *
+	 * @param loadChunks whether unloaded chunks should be loaded synchronously or be skipped
+	 */
+	public SnapshotBlockSource(World world, int minX, int minZ, int maxX, int maxZ, boolean loadChunks) {
+		
+		this.snapshots = new HashMap<>();
+		this.maxHeight = world.getMaxHeight();
+		this.outOfWorldData = Material.AIR.createBlockData();
+		
+		for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+			for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+				
+				if (loadChunks || world.isChunkLoaded(chunkX, chunkZ)) {
+					snapshots.put(ChunkUtils.getChunkKey(chunkX, chunkZ), world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false));
+				}
+			}
+		}
+	}
+	
+	@Override
+	public boolean isChunkAvailable(int chunkX, int chunkZ) {
+		return snapshots.containsKey(ChunkUtils.getChunkKey(chunkX, chunkZ));
+	}
+	
+	@Override
+	public BlockType getBlockTypeAt(int x, int y, int z) {
+		return new AquaticBlockType(getBlockData(x, y, z));
+	}
+	
+	@Override
+	public boolean isOccluding(int x, int y, int z) {
+		return getBlockData(x, y, z).getMaterial().isOccluding();
+	}
+	
+	private BlockData getBlockData(int x, int y, int z) {
+		
+		if (y < 0 || y >= maxHeight) {
+			return outOfWorldData;
+		}
+		
+		ChunkSnapshot snapshot = snapshots.get(ChunkUtils.getChunkKey(x >> 4, z >> 4));
+		
+		if (snapshot == null) {
+			throw new IllegalArgumentException("Block " + x + ", " + y + ", " + z + " is not contained in any chunk snapshot.");
+		}
+		
+		return snapshot.getBlockData(x & 15, y, z & 15);
+	}
+}
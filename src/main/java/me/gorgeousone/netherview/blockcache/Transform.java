@@ -63,6 +63,27 @@ public class Transform {
 		return this;
 	}
 	
+	/**
+	 * Returns the translation rounded down to block coordinates like it is applied in {@link #transformVec(BlockVec)}.
+	 */
+	public BlockVec getBlockTranslation() {
+		return new BlockVec(translation);
+	}
+	
+	/**
+	 * Returns the rotation center rounded down to block coordinates like it is applied in {@link #transformVec(BlockVec)}.
+	 */
+	public BlockVec getBlockRotCenter() {
+		return new BlockVec(rotCenter);
+	}
+	
+	/**
+	 * Returns an entry of the 2x2 matrix for the rotation around the y axis (rows: x, z).
+	 */
+	public int getRotYEntry(int row, int column) {
+		return rotYMatrix[row][column];
+	}
+	
 	public boolean isRotY90DegRight() {
 		return rotYMatrix[0][1] == -1;
 	}
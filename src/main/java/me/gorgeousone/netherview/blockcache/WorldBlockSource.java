@@ -0,0 +1,36 @@
+package me.gorgeousone.netherview.blockcache;
+
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.World;
+
+/**
+ * Reads blocks directly from the world. Can only be used on the main thread.
+ */
+public class WorldBlockSource implements BlockSource {
+	
+	private final World world;
+	private final boolean loadChunks;
+	
+	/**
+	 * @param loadChunks whether unloaded chunks should be loaded synchronously or be treated as unavailable
+	 */
+	public WorldBlockSource(World world, boolean loadChunks) {
+		this.world = world;
+		this.loadChunks = loadChunks;
+	}
+	
+	@Override
+	public boolean isChunkAvailable(int chunkX, int chunkZ) {
+		return loadChunks || world.isChunkLoaded(chunkX, chunkZ);
+	}
+	
+	@Override
+	public BlockType getBlockTypeAt(int x, int y, int z) {
+		return BlockType.of(world.getBlockAt(x, y, z));
+	}
+	
+	@Override
+	public boolean isOccluding(int x, int y, int z) {
+		return world.getBlockAt(x, y, z).getType().isOccluding();
+	}
+}
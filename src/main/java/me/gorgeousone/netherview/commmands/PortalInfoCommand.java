@@ -73,6 +73,27 @@ public class PortalInfoCommand extends BasicCommand {
 			}
 		}
 		
+		infoText.append("\\n" + ChatColor.GRAY + "cache memory: " + ChatColor.RESET + getCacheMemoryInfo(portal));
+		infoText.append("\\n" + ChatColor.GRAY + "all caches: " + ChatColor.RESET
+		                + portalHandler.getTotalCacheSize() / 1024 + " KB of " + configSettings.getCacheMemoryBudget() / 1024 + " KB, "
+		                + portalHandler.getEvictedCacheCount() + " evicted, "
+		                + portalHandler.getExpiredCacheCount() + " expired");
+		infoText.append("\\n" + ChatColor.GRAY + "prefetched caches: " + ChatColor.RESET
+		                + portalHandler.getPrefetchHitCount() + " hits, "
+		                + portalHandler.getPrefetchMissCount() + " misses");
+		
 		MessageUtils.sendInfo(player, Message.PORTAL_INFO, portal.toString(), infoText.toString());
 	}
+	
+	/**
+	 * Returns the estimated memory used by the block caches and projection caches of the portal in KB.
+	 */
+	private String getCacheMemoryInfo(Portal portal) {
+		
+		if (!portal.blockCachesAreLoaded() && !portal.projectionsAreLoaded()) {
+			return "-not loaded-";
+		}
+		
+		return (portalHandler.getCacheSize(portal) / 1024) + " KB";
+	}
 }
\ No newline at end of file
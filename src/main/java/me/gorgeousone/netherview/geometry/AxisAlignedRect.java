@@ -73,19 +73,21 @@ public class AxisAlignedRect {
 	}
 	
 	public boolean contains(Vector pointInPlane) {
-		
-		double pointY = pointInPlane.getY();
+		return contains(pointInPlane.getX(), pointInPlane.getY(), pointInPlane.getZ());
+	}
+	
+	/**
+	 * Returns true if the point lies within the bounds of the rectangle, assuming that the point lies in the rectangle's plane.
+	 */
+	public boolean contains(double pointX, double pointY, double pointZ) {
 		
 		if (pointY < min.getY() || pointY > max.getY()) {
 			return false;
 		}
 		
 		if (axis == Axis.X) {
-			double pointX = pointInPlane.getX();
 			return pointX >= min.getX() && pointX <= max.getX();
-			
 		} else {
-			double pointZ = pointInPlane.getZ();
 			return pointZ >= min.getZ() && pointZ <= max.getZ();
 		}
 	}
@@ -4,24 +4,36 @@ import org.bukkit.util.Vector;
 
 public class Line {
 	
-	private final Vector origin;
-	private final Vector direction;
+	private final double originX;
+	private final double originY;
+	private final double originZ;
+	
+	private final double directionX;
+	private final double directionY;
+	private final double directionZ;
 	
 	public Line(Vector point1, Vector point2) {
 		
-		this.origin = point1.clone();
-		this.direction = point2.clone().subtract(point1);
+		this.originX = point1.getX();
+		this.originY = point1.getY();
+		this.originZ = point1.getZ();
+		this.directionX = point2.getX() - originX;
+		this.directionY = point2.getY() - originY;
+		this.directionZ = point2.getZ() - originZ;
 	}
 	
 	public Vector getOrigin() {
-		return origin.clone();
+		return new Vector(originX, originY, originZ);
 	}
 	
 	public Vector getDirection() {
-		return direction.clone();
+		return new Vector(directionX, directionY, directionZ);
 	}
 	
 	public Vector getPoint(double d) {
-		return getOrigin().add(getDirection().multiply(d));
+		return new Vector(
+				originX + directionX * d,
+				originY + directionY * d,
+				originZ + directionZ * d);
 	}
 }
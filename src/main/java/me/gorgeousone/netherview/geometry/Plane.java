@@ -4,25 +4,36 @@ import org.bukkit.util.Vector;
 
 public class Plane {
 	
-	private final Vector origin;
-	private final Vector normal;
+	private double originX;
+	private double originY;
+	private double originZ;
+	
+	private final double normalX;
+	private final double normalY;
+	private final double normalZ;
 	
 	public Plane(Vector origin, Vector normal) {
 		
-		this.origin = origin.clone();
-		this.normal = normal.clone().normalize();
-		
 		if (normal.lengthSquared() == 0) {
 			throw new IllegalArgumentException("normal cannot be 0");
 		}
+		
+		Vector unitNormal = normal.clone().normalize();
+		
+		this.originX = origin.getX();
+		this.originY = origin.getY();
+		this.originZ = origin.getZ();
+		this.normalX = unitNormal.getX();
+		this.normalY = unitNormal.getY();
+		this.normalZ = unitNormal.getZ();
 	}
 	
 	public Vector getOrigin() {
-		return origin.clone();
+		return new Vector(originX, originY, originZ);
 	}
 	
 	public Vector getNormal() {
-		return normal.clone();
+		return new Vector(normalX, normalY, normalZ);
 	}
 	
 	public boolean contains(Vector point) {
@@ -31,21 +42,45 @@ public class Plane {
 			return false;
 		}
 		
-		Vector relPoint = getOrigin().subtract(point);
-		return Math.abs(getNormal().dot(relPoint)) < 0.0001;
+		return contains(point.getX(), point.getY(), point.getZ());
+	}
+	
+	public boolean contains(double x, double y, double z) {
+		return Math.abs(normalX * (originX - x) + normalY * (originY - y) + normalZ * (originZ - z)) < 0.0001;
 	}
 	
 	public Vector getIntersection(Line line) {
 		
-		Vector normal = getNormal();
+		Vector lineOrigin = line.getOrigin();
+		Vector lineDirection = line.getDirection();
 		
-		double d = getOrigin().subtract(line.getOrigin()).dot(normal) / line.getDirection().dot(normal);
-		Vector intersection = line.getPoint(d);
+		double d = getIntersectionFactor(
+				lineOrigin.getX(), lineOrigin.getY(), lineOrigin.getZ(),
+				lineDirection.getX(), lineDirection.getY(), lineDirection.getZ());
 		
+		Vector intersection = line.getPoint(d);
 		return contains(intersection) ? intersection : null;
 	}
 	
+	/**
+	 * Returns the factor d for which the point (origin + d * direction) of the line lies in the plane.
+	 * The result is infinite or NaN if the line is parallel to the plane.
+	 */
+	public double getIntersectionFactor(double lineOriginX,
+	                                    double lineOriginY,
+	                                    double lineOriginZ,
+	                                    double directionX,
+	                                    double directionY,
+	                                    double directionZ) {
+		
+		double originDistance = (originX - lineOriginX) * normalX + (originY - lineOriginY) * normalY + (originZ - lineOriginZ) * normalZ;
+		return originDistance / (directionX * normalX + directionY * normalY + directionZ * normalZ);
+	}
+	
 	public void translate(Vector delta) {
-		origin.add(delta);
+		
+		originX += delta.getX();
+		originY += delta.getY();
+		originZ += delta.getZ();
 	}
 }
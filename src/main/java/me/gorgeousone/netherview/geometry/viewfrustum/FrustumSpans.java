@@ -0,0 +1,227 @@
+package me.gorgeousone.netherview.geometry.viewfrustum;
+
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
+import me.gorgeousone.netherview.blockcache.ReadableBlockCache;
+import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.wrapper.Axis;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.util.Vector;
+
+/**
+ * The block coordinates covered by a view frustum, described as one rectangle of blocks per layer.
+ * For a frustum aligned to the x axis the layers are stacked along the z axis and the rows of each layer run along the x axis,
+ * for a frustum aligned to the z axis the layers are stacked along the x axis and the rows run along the z axis.
+ * The columns always run along the y axis.
+ */
+public class FrustumSpans {
+	
+	private final Axis axis;
+	private final int firstLayer;
+	
+	private final int[] minRows;
+	private final int[] maxRows;
+	private final int[] minColumns;
+	private final int[] maxColumns;
+	
+	public FrustumSpans(Axis axis,
+	                    int firstLayer,
+	                    int[] minRows,
+	                    int[] maxRows,
+	                    int[] minColumns,
+	                    int[] maxColumns) {
+		
+		this.axis = axis;
+		this.firstLayer = firstLayer;
+		this.minRows = minRows;
+		this.maxRows = maxRows;
+		this.minColumns = minColumns;
+		this.maxColumns = maxColumns;
+	}
+	
+	public Axis getAxis() {
+		return axis;
+	}
+	
+	public int getLayerCount() {
+		return minRows.length;
+	}
+	
+	/**
+	 * Returns the minimum block coordinates of the box around all spans.
+	 */
+	public BlockVec getMin() {
+		
+		int minLayer = firstLayer;
+		int minRow = Integer.MAX_VALUE;
+		int minColumn = Integer.MAX_VALUE;
+		
+		for (int i = 0; i < getLayerCount(); i++) {
+			minRow = Math.min(minRow, minRows[i]);
+			minColumn = Math.min(minColumn, minColumns[i]);
+		}
+		
+		return axis == Axis.X ? new BlockVec(minRow, minColumn, minLayer) : new BlockVec(minLayer, minColumn, minRow);
+	}
+	
+	/**
+	 * Returns the maximum block coordinates of the box around all spans.
+	 */
+	public BlockVec getMax() {
+		
+		int maxLayer = firstLayer + getLayerCount() - 1;
+		int maxRow = Integer.MIN_VALUE;
+		int maxColumn = Integer.MIN_VALUE;
+		
+		for (int i = 0; i < getLayerCount(); i++) {
+			maxRow = Math.max(maxRow, maxRows[i]);
+			maxColumn = Math.max(maxColumn, maxColumns[i]);
+		}
+		
+		return axis == Axis.X ? new BlockVec(maxRow, maxColumn, maxLayer) : new BlockVec(maxLayer, maxColumn, maxRow);
+	}
+	
+	/**
+	 * Returns a map of all blocks of the block cache inside the spans.
+	 */
+	public BlockTypeMap getContainedBlocks(ReadableBlockCache blockCache) {
+		
+		BlockTypeMap containedBlocks = new BlockTypeMap();
+		
+		forEachBlock((x, y, z) -> {
+			
+			BlockType blockType = blockCache.getBlockTypeAt(x, y, z);
+			
+			if (blockType != null) {
+				containedBlocks.put(x, y, z, blockType);
+			}
+		});
+		
+		return containedBlocks;
+	}
+	
+	public void forEachBlock(BlockConsumer consumer) {
+		
+		for (int i = 0; i < getLayerCount(); i++) {
+			for (int row = minRows[i]; row <= maxRows[i]; row++) {
+				forEachInColumn(firstLayer + i, row, minColumns[i], maxColumns[i], consumer);
+			}
+		}
+	}
+	
+	/**
+	 * Calls the consumer for all blocks of the spans ordered from the view point outwards.
+	 * Every block comes after all of it's direct neighbours that are closer to the view point on any axis.
+	 */
+	public void forEachBlockFrontToBack(Vector viewPoint, BlockConsumer consumer) {
+		
+		double viewLayer = axis == Axis.X ? viewPoint.getZ() : viewPoint.getX();
+		double viewRow = axis == Axis.X ? viewPoint.getX() : viewPoint.getZ();
+		double viewColumn = viewPoint.getY();
+		
+		for (int layer : orderOutwards(firstLayer, firstLayer + getLayerCount() - 1, viewLayer)) {
+			
+			int i = layer - firstLayer;
+			int[] columns = orderOutwards(minColumns[i], maxColumns[i], viewColumn);
+			
+			for (int row : orderOutwards(minRows[i], maxRows[i], viewRow)) {
+				for (int column : columns) {
+					
+					if (axis == Axis.X) {
+						consumer.accept(row, column, layer);
+					} else {
+						consumer.accept(layer, column, row);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Calls the consumer for all blocks of these spans that are not part of the other spans.
+	 * The effort only depends on the count of different blocks (and the count of rows), not on the size of the spans.
+	 */
+	public void forEachBlockNotIn(FrustumSpans other, BlockConsumer consumer) {
+		
+		if (other.axis != axis) {
+			forEachBlock(consumer);
+			return;
+		}
+		
+		for (int i = 0; i < getLayerCount(); i++) {
+			
+			int layer = firstLayer + i;
+			int otherIndex = layer - other.firstLayer;
+			
+			//the other spans don't have this layer, so all of it's blocks are different
+			if (otherIndex < 0 || otherIndex >= other.getLayerCount()) {
+				
+				for (int row = minRows[i]; row <= maxRows[i]; row++) {
+					forEachInColumn(layer, row, minColumns[i], maxColumns[i], consumer);
+				}
+				continue;
+			}
+			
+			int otherMinRow = other.minRows[otherIndex];
+			int otherMaxRow = other.maxRows[otherIndex];
+			int otherMinColumn = other.minColumns[otherIndex];
+			int otherMaxColumn = other.maxColumns[otherIndex];
+			
+			for (int row = minRows[i]; row <= maxRows[i]; row++) {
+				
+				if (row < otherMinRow || row > otherMaxRow) {
+					forEachInColumn(layer, row, minColumns[i], maxColumns[i], consumer);
+					continue;
+				}
+				
+				//only the parts of the column below and above the other column are different
+				forEachInColumn(layer, row, minColumns[i], Math.min(maxColumns[i], otherMinColumn - 1), consumer);
+				forEachInColumn(layer, row, Math.max(minColumns[i], otherMaxColumn + 1), maxColumns[i], consumer);
+			}
+		}
+	}
+	
+	private void forEachInColumn(int layer, int row, int minColumn, int maxColumn, BlockConsumer consumer) {
+		
+		for (int column = minColumn; column <= maxColumn; column++) {
+			
+			if (axis == Axis.X) {
+				consumer.accept(row, column, layer);
+			} else {
+				consumer.accept(layer, column, row);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the block coordinates from min to max sorted by their distance to the view coordinate.
+	 */
+	private static int[] orderOutwards(int min, int max, double viewCoord) {
+		
+		int[] order = new int[Math.max(0, max - min + 1)];
+		
+		if (order.length == 0) {
+			return order;
+		}
+		
+		int closest = Math.max(min, Math.min(max, (int) Math.floor(viewCoord)));
+		int lower = closest - 1;
+		int upper = closest + 1;
+		order[0] = closest;
+		
+		for (int i = 1; i < order.length; i++) {
+			
+			if (upper > max || lower >= min && viewCoord - (lower + 0.5) <= upper + 0.5 - viewCoord) {
+				order[i] = lower--;
+			} else {
+				order[i] = upper++;
+			}
+		}
+		
+		return order;
+	}
+	
+	@FunctionalInterface
+	public interface BlockConsumer {
+		void accept(int x, int y, int z);
+	}
+}
\ No newline at end of file
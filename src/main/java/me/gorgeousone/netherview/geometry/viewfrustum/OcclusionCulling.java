@@ -0,0 +1,111 @@
+package me.gorgeousone.netherview.geometry.viewfrustum;
+
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
+import me.gorgeousone.netherview.blockcache.ReadableBlockCache;
+import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.util.Vector;
+
+import java.util.BitSet;
+
+/**
+ * Filters out the blocks of a frustum that are completely hidden behind other occluding projection blocks.
+ */
+public final class OcclusionCulling {
+	
+	private OcclusionCulling() {}
+	
+	/**
+	 * Returns a map of the blocks from the projection inside the frustum which could be seen from the frustum's view point.
+	 * A block is hidden if every face of it that is turned towards the view point touches either an occluding projection block
+	 * or another hidden location. The frustum is walked through from front to back, so these neighbours are always known before.
+	 */
+	public static BlockTypeMap getVisibleBlocks(ViewFrustum frustum, ReadableBlockCache projection) {
+		
+		FrustumSpans spans = frustum.getSpans();
+		Vector viewPoint = frustum.getViewPoint();
+		
+		BlockVec min = spans.getMin();
+		BlockVec max = spans.getMax();
+		BlockVec size = max.clone().subtract(min).add(1, 1, 1);
+		
+		//locations that are either hidden or display an occluding block
+		BitSet blockers = new BitSet(size.getX() * size.getY() * size.getZ());
+		BlockTypeMap visibleBlocks = new BlockTypeMap();
+		
+		spans.forEachBlockFrontToBack(viewPoint, (x, y, z) -> {
+			
+			int index = getIndex(x, y, z, min, size);
+			
+			if (isHidden(x, y, z, viewPoint, blockers, min, size)) {
+				blockers.set(index);
+				return;
+			}
+			
+			BlockType blockType = projection.getBlockTypeAt(x, y, z);
+			
+			if (blockType == null) {
+				return;
+			}
+			
+			visibleBlocks.put(x, y, z, blockType);
+			
+			if (blockType.isOccluding()) {
+				blockers.set(index);
+			}
+		});
+		
+		return visibleBlocks;
+	}
+	
+	private static boolean isHidden(int x,
+	                                int y,
+	                                int z,
+	                                Vector viewPoint,
+	                                BitSet blockers,
+	                                BlockVec min,
+	                                BlockVec size) {
+		
+		int stepX = getStepToViewPoint(x, viewPoint.getX());
+		int stepY = getStepToViewPoint(y, viewPoint.getY());
+		int stepZ = getStepToViewPoint(z, viewPoint.getZ());
+		
+		//the view point is inside the block
+		if (stepX == 0 && stepY == 0 && stepZ == 0) {
+			return false;
+		}
+		
+		return (stepX == 0 || isBlocker(x + stepX, y, z, blockers, min, size)) &&
+		       (stepY == 0 || isBlocker(x, y + stepY, z, blockers, min, size)) &&
+		       (stepZ == 0 || isBlocker(x, y, z + stepZ, blockers, min, size));
+	}
+	
+	/**
+	 * Returns the direction in which the face of the block turned towards the view point lies (or 0 if no face on this axis is).
+	 */
+	private static int getStepToViewPoint(int blockCoord, double viewCoord) {
+		
+		if (viewCoord < blockCoord) {
+			return -1;
+		}
+		
+		return viewCoord > blockCoord + 1 ? 1 : 0;
+	}
+	
+	private static boolean isBlocker(int x, int y, int z, BitSet blockers, BlockVec min, BlockVec size) {
+		
+		int relX = x - min.getX();
+		int relY = y - min.getY();
+		int relZ = z - min.getZ();
+		
+		if (relX < 0 || relY < 0 || relZ < 0 || relX >= size.getX() || relY >= size.getY() || relZ >= size.getZ()) {
+			return false;
+		}
+		
+		return blockers.get(getIndex(x, y, z, min, size));
+	}
+	
+	private static int getIndex(int x, int y, int z, BlockVec min, BlockVec size) {
+		return ((x - min.getX()) * size.getY() + (y - min.getY())) * size.getZ() + (z - min.getZ());
+	}
+}
\ No newline at end of file
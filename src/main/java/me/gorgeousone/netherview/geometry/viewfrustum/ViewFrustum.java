@@ -1,16 +1,15 @@
 package me.gorgeousone.netherview.geometry.viewfrustum;
 
-import me.gorgeousone.netherview.blockcache.BlockCache;
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
+import me.gorgeousone.netherview.blockcache.ReadableBlockCache;
 import me.gorgeousone.netherview.geometry.AxisAlignedRect;
-import me.gorgeousone.netherview.geometry.BlockVec;
 import me.gorgeousone.netherview.geometry.Line;
 import me.gorgeousone.netherview.geometry.Plane;
 import me.gorgeousone.netherview.wrapper.Axis;
-import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
 import org.bukkit.util.Vector;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A viewing frustum for detecting the blocks of a projection cache that can be seen through a portal frame.
@@ -18,6 +17,8 @@ import java.util.Map;
  */
 public class ViewFrustum {
 	
+	private static final double EPSILON = 1e-9;
+	
 	private final Vector viewPoint;
 	private final AxisAlignedRect nearPlaneRect;
 	private final AxisAlignedRect farPlaneRect;
@@ -25,6 +26,15 @@ public class ViewFrustum {
 	private final int frustumLength;
 	private final Vector frustumFacing;
 	
+	//the near plane and the 4 side planes through the view point and the edges of the near plane rectangle
+	//each plane is stored as normal x, y, z and offset, the normals point into the frustum
+	private final double[] boundingPlanes;
+	
+	//the other axes a box can be separated from the frustum on: the box axes and the cross products of box and frustum edges
+	//each axis is stored as x, y, z and the minimum and maximum of the frustum projected onto it (which can be infinite)
+	private final double[] separatingAxes;
+	private FrustumSpans spans;
+	
 	public ViewFrustum(Vector viewPoint, AxisAlignedRect nearPlane, int frustumLength) {
 		
 		this.viewPoint = viewPoint;
@@ -33,6 +43,10 @@ public class ViewFrustum {
 		
 		this.frustumFacing = createFrustumFacing();
 		this.farPlaneRect = createFarPlaneRect();
+		
+		Vector[] nearPlaneCorners = createNearPlaneCorners();
+		this.boundingPlanes = createBoundingPlanes(nearPlaneCorners);
+		this.separatingAxes = createSeparatingAxes(nearPlaneCorners);
 	}
 	
 	public Vector getViewPoint() {
@@ -48,30 +62,119 @@ public class ViewFrustum {
 	}
 	
 	public boolean contains(Vector point) {
+		return contains(point.getX(), point.getY(), point.getZ());
+	}
+	
+	/**
+	 * Returns true if the line of view from the view point to the given point passes through the near plane rectangle.
+	 */
+	public boolean contains(double x, double y, double z) {
+		
+		double viewX = viewPoint.getX();
+		double viewY = viewPoint.getY();
+		double viewZ = viewPoint.getZ();
 		
-		DefinedLine lineOfView = new DefinedLine(viewPoint, point);
-		Vector pointInNearPlane = nearPlaneRect.getPlane().getIntersection(lineOfView);
+		double dirX = x - viewX;
+		double dirY = y - viewY;
+		double dirZ = z - viewZ;
 		
-		return pointInNearPlane != null && nearPlaneRect.contains(pointInNearPlane);
+		Plane nearPlane = nearPlaneRect.getPlane();
+		double d = nearPlane.getIntersectionFactor(viewX, viewY, viewZ, dirX, dirY, dirZ);
+		
+		//only points between the view point and the given point count (also filters out NaN)
+		if (!(d >= 0 && d <= 1)) {
+			return false;
+		}
+		
+		double intersectionX = viewX + dirX * d;
+		double intersectionY = viewY + dirY * d;
+		double intersectionZ = viewZ + dirZ * d;
+		
+		return nearPlane.contains(intersectionX, intersectionY, intersectionZ) &&
+		       nearPlaneRect.contains(intersectionX, intersectionY, intersectionZ);
 	}
 	
 	/**
-	 * Returns true if any vertex of the block at the given position intersects the frustum
+	 * Returns true if the block at the given position intersects the frustum
 	 */
 	public boolean containsBlock(Vector blockPos) {
+		return containsBlock(blockPos.getBlockX(), blockPos.getBlockY(), blockPos.getBlockZ());
+	}
+	
+	/**
+	 * The test is conservative, blocks close to an edge of the frustum might be counted as intersecting although they are just outside of it.
+	 * Displaying a few blocks too many doesn't matter, so the exact test is skipped for them.
+	 */
+	public boolean containsBlock(int x, int y, int z) {
+		return intersectsBoundingPlanes(x, y, z, x + 1, y + 1, z + 1);
+	}
+	
+	/**
+	 * Returns true if the axis aligned box intersects the frustum. Other than containsBlock() this test is exact.
+	 */
+	public boolean intersectsBox(double minX,
+	                             double minY,
+	                             double minZ,
+	                             double maxX,
+	                             double maxY,
+	                             double maxZ) {
+		
+		if (!intersectsBoundingPlanes(minX, minY, minZ, maxX, maxY, maxZ)) {
+			return false;
+		}
 		
-		for (int dx = 0; dx <= 1; dx++) {
-			for (int dy = 0; dy <= 1; dy++) {
-				for (int dz = 0; dz <= 1; dz++) {
-					
-					if (contains(blockPos.clone().add(new Vector(dy, dy, dz)))) {
-						return true;
-					}
-				}
+		double centerX = (minX + maxX) / 2;
+		double centerY = (minY + maxY) / 2;
+		double centerZ = (minZ + maxZ) / 2;
+		double halfSizeX = (maxX - minX) / 2;
+		double halfSizeY = (maxY - minY) / 2;
+		double halfSizeZ = (maxZ - minZ) / 2;
+		
+		for (int i = 0; i < separatingAxes.length; i += 5) {
+			
+			double axisX = separatingAxes[i];
+			double axisY = separatingAxes[i + 1];
+			double axisZ = separatingAxes[i + 2];
+			
+			double boxCenter = centerX * axisX + centerY * axisY + centerZ * axisZ;
+			double boxRadius = halfSizeX * Math.abs(axisX) + halfSizeY * Math.abs(axisY) + halfSizeZ * Math.abs(axisZ);
+			
+			if (boxCenter + boxRadius < separatingAxes[i + 3] || boxCenter - boxRadius > separatingAxes[i + 4]) {
+				return false;
 			}
 		}
 		
-		return false;
+		return true;
+	}
+	
+	/**
+	 * Returns false if the box is completely behind any of the bounding planes of the frustum.
+	 */
+	private boolean intersectsBoundingPlanes(double minX,
+	                                         double minY,
+	                                         double minZ,
+	                                         double maxX,
+	                                         double maxY,
+	                                         double maxZ) {
+		
+		for (int i = 0; i < boundingPlanes.length; i += 4) {
+			
+			double normalX = boundingPlanes[i];
+			double normalY = boundingPlanes[i + 1];
+			double normalZ = boundingPlanes[i + 2];
+			
+			//the box is outside if even it's vertex furthest into the direction of the plane normal is behind the plane
+			double distance = normalX * (normalX >= 0 ? maxX : minX) +
+			                  normalY * (normalY >= 0 ? maxY : minY) +
+			                  normalZ * (normalZ >= 0 ? maxZ : minZ) +
+			                  boundingPlanes[i + 3];
+			
+			if (distance < 0) {
+				return false;
+			}
+		}
+		
+		return true;
 	}
 	
 	public int getLength() {
@@ -90,6 +193,130 @@ public class ViewFrustum {
 		return frustumFacing;
 	}
 	
+	/**
+	 * Returns the corners of the near plane rectangle in the order they are connected.
+	 */
+	private Vector[] createNearPlaneCorners() {
+		
+		Vector rectMin = nearPlaneRect.getMin();
+		Vector rectMax = nearPlaneRect.getMax();
+		
+		Vector[] corners = new Vector[4];
+		corners[0] = rectMin;
+		corners[2] = rectMax;
+		
+		if (nearPlaneRect.getAxis() == Axis.X) {
+			corners[1] = new Vector(rectMax.getX(), rectMin.getY(), rectMin.getZ());
+			corners[3] = new Vector(rectMin.getX(), rectMax.getY(), rectMin.getZ());
+		} else {
+			corners[1] = new Vector(rectMin.getX(), rectMin.getY(), rectMax.getZ());
+			corners[3] = new Vector(rectMin.getX(), rectMax.getY(), rectMin.getZ());
+		}
+		
+		return corners;
+	}
+	
+	private double[] createBoundingPlanes(Vector[] corners) {
+		
+		Vector rectMin = nearPlaneRect.getMin();
+		Vector rectCenter = rectMin.clone().add(nearPlaneRect.getMax()).multiply(0.5);
+		double[] planes = new double[5 * 4];
+		
+		//the near plane only lets through what is behind the portal (seen from the view point)
+		planes[0] = frustumFacing.getX();
+		planes[1] = frustumFacing.getY();
+		planes[2] = frustumFacing.getZ();
+		planes[3] = -frustumFacing.dot(rectMin);
+		
+		for (int i = 0; i < 4; i++) {
+			
+			Vector corner = corners[i];
+			Vector edge = corners[(i + 1) % 4].clone().subtract(corner);
+			Vector normal = edge.crossProduct(viewPoint.clone().subtract(corner));
+			double offset = -normal.dot(viewPoint);
+			
+			//make the normal point towards the inside of the frustum
+			if (normal.dot(rectCenter) + offset < 0) {
+				normal.multiply(-1);
+				offset *= -1;
+			}
+			
+			int planeIndex = (i + 1) * 4;
+			planes[planeIndex] = normal.getX();
+			planes[planeIndex + 1] = normal.getY();
+			planes[planeIndex + 2] = normal.getZ();
+			planes[planeIndex + 3] = offset;
+		}
+		
+		return planes;
+	}
+	
+	private double[] createSeparatingAxes(Vector[] corners) {
+		
+		//the edges of the near plane rectangle and the edges from the view point through it's corners
+		Vector[] frustumEdges = new Vector[6];
+		frustumEdges[0] = new Vector(0, 1, 0);
+		frustumEdges[1] = nearPlaneRect.getAxis() == Axis.X ? new Vector(1, 0, 0) : new Vector(0, 0, 1);
+		
+		for (int i = 0; i < 4; i++) {
+			frustumEdges[i + 2] = corners[i].clone().subtract(viewPoint);
+		}
+		
+		Vector[] boxEdges = {new Vector(1, 0, 0), new Vector(0, 1, 0), new Vector(0, 0, 1)};
+		List<Vector> axes = new ArrayList<>();
+		
+		for (Vector boxEdge : boxEdges) {
+			
+			axes.add(boxEdge);
+			
+			for (Vector frustumEdge : frustumEdges) {
+				
+				Vector axis = boxEdge.clone().crossProduct(frustumEdge);
+				
+				//parallel edges don't make an axis
+				if (axis.lengthSquared() > EPSILON) {
+					axes.add(axis);
+				}
+			}
+		}
+		
+		double[] axisData = new double[axes.size() * 5];
+		
+		for (int i = 0; i < axes.size(); i++) {
+			
+			Vector axis = axes.get(i);
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			
+			for (Vector corner : corners) {
+				
+				double projection = corner.dot(axis);
+				min = Math.min(min, projection);
+				max = Math.max(max, projection);
+			}
+			
+			//the frustum reaches endlessly far along the edges through the corners
+			for (int k = 2; k < frustumEdges.length; k++) {
+				
+				double edgeProjection = frustumEdges[k].dot(axis);
+				
+				if (edgeProjection > EPSILON) {
+					max = Double.POSITIVE_INFINITY;
+				} else if (edgeProjection < -EPSILON) {
+					min = Double.NEGATIVE_INFINITY;
+				}
+			}
+			
+			axisData[i * 5] = axis.getX();
+			axisData[i * 5 + 1] = axis.getY();
+			axisData[i * 5 + 2] = axis.getZ();
+			axisData[i * 5 + 3] = min;
+			axisData[i * 5 + 4] = max;
+		}
+		
+		return axisData;
+	}
+	
 	private AxisAlignedRect createFarPlaneRect() {
 		
 		Vector nearPlaneOrigin = nearPlaneRect.getMin();
@@ -115,7 +342,19 @@ public class ViewFrustum {
 	/**
 	 * Returns a map of all blocks from a projection cache visible with this frustum.
 	 */
-	public Map<BlockVec, BlockType> getContainedBlocks(BlockCache projection) {
+	public BlockTypeMap getContainedBlocks(ReadableBlockCache projection) {
+		return getSpans().getContainedBlocks(projection);
+	}
+	
+	/**
+	 * Returns the block layers of the frustum. They are only calculated once and can be compared to the ones of a previous frustum
+	 * to find out which blocks became visible or invisible.
+	 */
+	public FrustumSpans getSpans() {
+		
+		if (spans != null) {
+			return spans;
+		}
 		
 		AxisAlignedRect startLayer;
 		AxisAlignedRect endLayer;
@@ -130,18 +369,18 @@ public class ViewFrustum {
 		}
 		
 		if (nearPlaneRect.getAxis() == Axis.X) {
-			return getBlocksInXAlignedFrustum(projection, startLayer, endLayer);
+			spans = createXAlignedSpans(startLayer, endLayer);
 		} else {
-			return getBlocksInZAlignedFrustum(projection, startLayer, endLayer);
+			spans = createZAlignedSpans(startLayer, endLayer);
 		}
+		
+		return spans;
 	}
 	
 	/**
-	 * Iterates through all coordinates of the the block cache that the frustum contains and returns a map of all blocks in that area.
+	 * Calculates the bounds of all block coordinates that the frustum contains in each block layer along the z axis.
 	 */
-	private Map<BlockVec, BlockType> getBlocksInXAlignedFrustum(BlockCache blockCache,
-	                                                            AxisAlignedRect startLayer,
-	                                                            AxisAlignedRect endLayer) {
+	private FrustumSpans createXAlignedSpans(AxisAlignedRect startLayer, AxisAlignedRect endLayer) {
 		
 		//I get it. It's long and not comprehensible, but it has to be all in 1 method for max efficiency
 		Vector layerMinPoint = startLayer.getMin();
@@ -176,31 +415,27 @@ public class ViewFrustum {
 		int layerOffsetMaxX = (int) Math.signum(layerMaxPointStep.getX()) == 1 ? 1 : 0;
 		int layerOffsetMaxY = (int) Math.signum(layerMaxPointStep.getY()) == 1 ? 1 : 0;
 		
-		Map<BlockVec, BlockType> blocksInFrustum = new HashMap<>();
-		int startZ = (int) Math.round(startLayer.getMin().getZ());
+		int[] startXs = new int[frustumLength];
+		int[] startYs = new int[frustumLength];
+		int[] endXs = new int[frustumLength];
+		int[] endYs = new int[frustumLength];
 		
-		//now this is just the iteration I was talking about all the time
 		for (int i = 0; i < frustumLength; i++) {
 			
-			int layerZ = startZ + i;
-			int startX = minXs[i + layerOffsetMinX];
-			int startY = minYs[i + layerOffsetMinY];
-			int endX = maxXs[i + layerOffsetMaxX];
-			int endY = maxYs[i + layerOffsetMaxY];
-			
-			for (int row = startX; row <= endX; row++) {
-				for (int columnY = startY; columnY <= endY; columnY++) {
-					addBlock(row, columnY, layerZ, blockCache, blocksInFrustum);
-				}
-			}
+			startXs[i] = minXs[i + layerOffsetMinX];
+			startYs[i] = minYs[i + layerOffsetMinY];
+			endXs[i] = maxXs[i + layerOffsetMaxX];
+			endYs[i] = maxYs[i + layerOffsetMaxY];
 		}
 		
-		return blocksInFrustum;
+		int startZ = (int) Math.round(startLayer.getMin().getZ());
+		return new FrustumSpans(Axis.X, startZ, startXs, endXs, startYs, endYs);
 	}
 	
-	private Map<BlockVec, BlockType> getBlocksInZAlignedFrustum(BlockCache blockCache,
-	                                                            AxisAlignedRect startLayer,
-	                                                            AxisAlignedRect endLayer) {
+	/**
+	 * Calculates the bounds of all block coordinates that the frustum contains in each block layer along the x axis.
+	 */
+	private FrustumSpans createZAlignedSpans(AxisAlignedRect startLayer, AxisAlignedRect endLayer) {
 		
 		Vector layerMinPoint = startLayer.getMin();
 		Vector layerMaxPoint = startLayer.getMax();
@@ -229,41 +464,20 @@ public class ViewFrustum {
 		int offMaxZ = (int) Math.signum(layerMaxPointStep.getZ()) == 1 ? 1 : 0;
 		int offMaxY = (int) Math.signum(layerMaxPointStep.getY()) == 1 ? 1 : 0;
 		
-		Map<BlockVec, BlockType> blocksInFrustum = new HashMap<>();
-		int startX = (int) Math.round(startLayer.getMin().getX());
+		int[] startZs = new int[frustumLength];
+		int[] startYs = new int[frustumLength];
+		int[] endZs = new int[frustumLength];
+		int[] endYs = new int[frustumLength];
 		
 		for (int i = 0; i < frustumLength; i++) {
 			
-			int layerX = startX + i;
-			int startZ = minZs[i + offMinZ];
-			int startY = minYs[i + offMinY];
-			int endZ = maxZs[i + offMaxZ];
-			int endY = maxYs[i + offMaxY];
-			
-			for (int rowZ = startZ; rowZ <= endZ; rowZ++) {
-				for (int columnY = startY; columnY <= endY; columnY++) {
-					addBlock(layerX, columnY, rowZ, blockCache, blocksInFrustum);
-				}
-			}
+			startZs[i] = minZs[i + offMinZ];
+			startYs[i] = minYs[i + offMinY];
+			endZs[i] = maxZs[i + offMaxZ];
+			endYs[i] = maxYs[i + offMaxY];
 		}
 		
-		return blocksInFrustum;
-	}
-	
-	
-	/**
-	 * Adds a blocks from the projection cache to the visible blocks in the frustum.
-	 */
-	private void addBlock(int x,
-	                      int y,
-	                      int z,
-	                      BlockCache projection,
-	                      Map<BlockVec, BlockType> blocksInFrustum) {
-		
-		BlockType blockType = projection.getBlockTypeAt(x, y, z);
-		
-		if (blockType != null) {
-			blocksInFrustum.put(new BlockVec(x, y, z), blockType);
-		}
+		int startX = (int) Math.round(startLayer.getMin().getX());
+		return new FrustumSpans(Axis.Z, startX, startZs, endZs, startYs, endYs);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package me.gorgeousone.netherview.geometry.viewfrustum;
+
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
+import me.gorgeousone.netherview.blockcache.ProjectionCache;
+import me.gorgeousone.netherview.geometry.AxisAlignedRect;
+import org.bukkit.util.Vector;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A small LRU cache of the view frustums of one projection cache.
+ * View points are rounded to a grid, so players standing at nearly the same position in front of a portal share the same frustum.
+ * With occlusion culling, the blocks visible with a frustum are shared as well, because they are calculated on every view update.
+ * Without it, updates only compare the spans of the last and the new frustum and need no visible block set.
+ * All methods are synchronized because the cache is used by the view worker threads.
+ * Visible block sets are calculated outside of the lock, other threads asking for the same set wait for it to be finished.
+ */
+public class ViewFrustumCache {
+	
+	private static final int MAX_ENTRIES = 64;
+	
+	private final ProjectionCache projection;
+	private final Map<Long, ViewFrustum> frustums;
+	private final Map<ViewFrustum, Future<BlockTypeMap>> visibleBlocks;
+	private int lastGridSize;
+	
+	public ViewFrustumCache(ProjectionCache projection) {
+		
+		this.projection = projection;
+		this.visibleBlocks = new IdentityHashMap<>();
+		
+		this.frustums = new LinkedHashMap<Long, ViewFrustum>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, ViewFrustum> eldest) {
+				
+				if (size() > MAX_ENTRIES) {
+					visibleBlocks.remove(eldest.getValue());
+					return true;
+				}
+				
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the view frustum for the view point rounded to 1/gridSize of a block.
+	 * Returns null if no frustum can be created from there (like createFrustum() does).
+	 */
+	public synchronized ViewFrustum getFrustum(Vector viewPoint, AxisAlignedRect portalRect, int gridSize) {
+		
+		//keys of different grids describe different positions
+		if (gridSize != lastGridSize) {
+			clear();
+			lastGridSize = gridSize;
+		}
+		
+		Vector rectMin = portalRect.getMin();
+		
+		int gridX = (int) Math.round((viewPoint.getX() - rectMin.getX()) * gridSize);
+		int gridY = (int) Math.round((viewPoint.getY() - rectMin.getY()) * gridSize);
+		int gridZ = (int) Math.round((viewPoint.getZ() - rectMin.getZ()) * gridSize);
+		long key = ((long) gridX & 0x1FFFFF) << 42 | ((long) gridY & 0x1FFFFF) << 21 | (long) gridZ & 0x1FFFFF;
+		
+		if (frustums.containsKey(key)) {
+			return frustums.get(key);
+		}
+		
+		Vector gridViewPoint = new Vector(
+				rectMin.getX() + (double) gridX / gridSize,
+				rectMin.getY() + (double) gridY / gridSize,
+				rectMin.getZ() + (double) gridZ / gridSize);
+		
+		//rounding must not move the view point to the other side of the portal
+		if (ViewFrustumFactory.isPlayerBehindPortal(gridViewPoint, portalRect) != ViewFrustumFactory.isPlayerBehindPortal(viewPoint, portalRect)) {
+			return ViewFrustumFactory.createFrustum(viewPoint, portalRect, projection.getCacheLength());
+		}
+		
+		ViewFrustum frustum = ViewFrustumFactory.createFrustum(gridViewPoint, portalRect, projection.getCacheLength());
+		frustums.put(key, frustum);
+		return frustum;
+	}
+	
+	/**
+	 * Returns the blocks of the projection visible with a frustum from this cache and not hidden behind other blocks.
+	 * The returned map is shared between all players and must not be modified.
+	 */
+	public BlockTypeMap getOcclusionCulledBlocks(ViewFrustum frustum) {
+		
+		Future<BlockTypeMap> blocksFuture;
+		FutureTask<BlockTypeMap> newTask = null;
+		
+		synchronized (this) {
+			
+			blocksFuture = visibleBlocks.get(frustum);
+			
+			if (blocksFuture == null) {
+				
+				newTask = new FutureTask<>(() -> OcclusionCulling.getVisibleBlocks(frustum, projection));
+				
+				visibleBlocks.put(frustum, newTask);
+				blocksFuture = newTask;
+			}
+		}
+		
+		if (newTask != null) {
+			newTask.run();
+		}
+		
+		try {
+			return blocksFuture.get();
+			
+		} catch (ExecutionException e) {
+			
+			synchronized (this) {
+				visibleBlocks.remove(frustum, blocksFuture);
+			}
+			
+			throw new IllegalStateException("Failed to calculate visible blocks", e.getCause());
+			
+		} catch (InterruptedException e) {
+			
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for visible blocks", e);
+		}
+	}
+	
+	/**
+	 * Removes all visible block sets because blocks of the projection changed. The frustums themselves stay valid.
+	 */
+	public synchronized void invalidateVisibleBlocks() {
+		visibleBlocks.clear();
+	}
+	
+	public synchronized void clear() {
+		
+		frustums.clear();
+		visibleBlocks.clear();
+	}
+	
+	/**
+	 * Returns the estimated memory used by the cached visible block sets.
+	 */
+	public synchronized long getBytesUsed() {
+		
+		long bytesUsed = 0;
+		
+		for (Future<BlockTypeMap> blocksFuture : visibleBlocks.values()) {
+			
+			if (!blocksFuture.isDone()) {
+				continue;
+			}
+			
+			try {
+				bytesUsed += blocksFuture.get().size() * 24L;
+			} catch (InterruptedException | ExecutionException ignored) {}
+		}
+		
+		return bytesUsed;
+	}
+}
\ No newline at end of file
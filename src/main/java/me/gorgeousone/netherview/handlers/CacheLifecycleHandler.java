@@ -0,0 +1,157 @@
+package me.gorgeousone.netherview.handlers;
+
+import me.gorgeousone.netherview.message.MessageUtils;
+import me.gorgeousone.netherview.portal.Portal;
+import me.gorgeousone.netherview.utils.TimeUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of when the caches of loaded portals were used the last time and removes them when they expire.
+ * Use times can be read and written from any thread. Expired portals are searched for asynchronously,
+ * but their caches are only removed on the main thread after checking again that they weren't used in the meantime.
+ * That way no cache can disappear while the main thread is reading it.
+ * View workers read projection and block caches off the main thread though. This is only safe because unloading
+ * just drops the portal's references to the caches and never clears or reuses their storage,
+ * so a worker holding a reference keeps reading a complete cache until it is garbage collected.
+ */
+public class CacheLifecycleHandler {
+	
+	private final JavaPlugin plugin;
+	private final Consumer<Portal> cacheUnloader;
+	
+	private final Map<Portal, Long> lastUseTimes;
+	private final AtomicLong expiredCacheCount;
+	private BukkitRunnable expirationTimer;
+	
+	/**
+	 * @param cacheUnloader function called on the main thread to remove the caches of an expired portal
+	 */
+	public CacheLifecycleHandler(JavaPlugin plugin, Consumer<Portal> cacheUnloader) {
+		
+		this.plugin = plugin;
+		this.cacheUnloader = cacheUnloader;
+		
+		lastUseTimes = new ConcurrentHashMap<>();
+		expiredCacheCount = new AtomicLong();
+	}
+	
+	/**
+	 * Sets the last use time of the portal's caches to now.
+	 */
+	public void markUsed(Portal portal) {
+		lastUseTimes.put(portal, System.currentTimeMillis());
+	}
+	
+	public void remove(Portal portal) {
+		lastUseTimes.remove(portal);
+	}
+	
+	public void clear() {
+		lastUseTimes.clear();
+	}
+	
+	/**
+	 * Returns a live, unmodifiable view of all portals with loaded caches that is safe to be read from other threads.
+	 */
+	public Set<Portal> getLoadedPortals() {
+		return Collections.unmodifiableSet(lastUseTimes.keySet());
+	}
+	
+	/**
+	 * Returns a snapshot of all portals with loaded caches sorted from the least recently to the most recently used one.
+	 */
+	public List<Portal> getPortalsByLastUse() {
+		
+		List<Map.Entry<Portal, Long>> entries = new ArrayList<>(lastUseTimes.entrySet());
+		entries.sort(Map.Entry.comparingByValue());
+		
+		List<Portal> portals = new ArrayList<>(entries.size());
+		
+		for (Map.Entry<Portal, Long> entry : entries) {
+			portals.add(entry.getKey());
+		}
+		
+		return portals;
+	}
+	
+	/**
+	 * Returns the count of portals which caches were removed because they weren't used for the expiration time.
+	 */
+	public long getExpiredCacheCount() {
+		return expiredCacheCount.get();
+	}
+	
+	/**
+	 * Starts a scheduler that asynchronously looks for portals that weren't used for the given time
+	 * and removes their caches on the main thread.
+	 */
+	public void startExpirationTimer(long expirationMillis) {
+		
+		long timerPeriod = 10 * 20;
+		
+		MessageUtils.printDebug("Starting cache expiration timer");
+		
+		expirationTimer = new BukkitRunnable() {
+			@Override
+			public void run() {
+				
+				List<Portal> expiredPortals = new ArrayList<>();
+				long now = System.currentTimeMillis();
+				
+				for (Map.Entry<Portal, Long> entry : lastUseTimes.entrySet()) {
+					if (now - entry.getValue() > expirationMillis) {
+						expiredPortals.add(entry.getKey());
+					}
+				}
+				
+				if (!expiredPortals.isEmpty()) {
+					Bukkit.getScheduler().runTask(plugin, () -> unloadExpiredCaches(expiredPortals, expirationMillis));
+				}
+			}
+		};
+		
+		expirationTimer.runTaskTimerAsynchronously(plugin, TimeUtils.getTicksTillNextMinute(), timerPeriod);
+	}
+	
+	public void stopExpirationTimer() {
+		
+		if (expirationTimer != null) {
+			expirationTimer.cancel();
+			expirationTimer = null;
+		}
+	}
+	
+	/**
+	 * Removes the caches of the found portals if they still weren't used since they were found to be expired.
+	 */
+	private void unloadExpiredCaches(List<Portal> expiredPortals, long expirationMillis) {
+		
+		long now = System.currentTimeMillis();
+		
+		for (Portal portal : expiredPortals) {
+			
+			Long lastUseTime = lastUseTimes.get(portal);
+			
+			//the portal was used again or unloaded otherwise in the meantime
+			if (lastUseTime == null || now - lastUseTime <= expirationMillis) {
+				continue;
+			}
+			
+			cacheUnloader.accept(portal);
+			lastUseTimes.remove(portal);
+			expiredCacheCount.incrementAndGet();
+			MessageUtils.printDebug("Removed cached block data of portal " + portal.toString());
+		}
+	}
+}
\ No newline at end of file
@@ -97,7 +97,7 @@ public class EntityVisibilityHandler {
 		
 		for (ProjectionCache projection : portalSideViewers.keySet()) {
 			
-			Set<Entity> currentEntities = projection.getEntities();
+			Set<Entity> currentEntities = projection.getEntities(configSettings.isSyncChunkLoadingEnabled());
 			
 			for (PlayerViewSession session : portalSideViewers.get(projection)) {
 				
@@ -126,7 +126,7 @@ public class EntityVisibilityHandler {
 		
 		for (BlockCache blockCache : watchedBlockCaches.keySet()) {
 			
-			Set<Entity> currentEntities = blockCache.getEntities();
+			Set<Entity> currentEntities = blockCache.getEntities(configSettings.isSyncChunkLoadingEnabled());
 			Set<ProjectionEntity> newEntities = getProjectionEntities(currentEntities);
 			
 			currentEntities.forEach(entity -> projectionEntities.computeIfAbsent(entity, ProjectionEntity::new));
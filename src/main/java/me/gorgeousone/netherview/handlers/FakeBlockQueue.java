@@ -0,0 +1,382 @@
+package me.gorgeousone.netherview.handlers;
+
+import me.gorgeousone.netherview.ConfigSettings;
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
+import me.gorgeousone.netherview.geometry.AxisAlignedRect;
+import me.gorgeousone.netherview.message.MessageUtils;
+import me.gorgeousone.netherview.packet.PacketHandler;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.util.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sends fake projection blocks to players spread over multiple ticks, so large projections don't flood their connection at once.
+ * Each tick only a limited count of blocks is sent per player, starting with the blocks closest to the portal
+ * and most in line with the player's look direction. Fake blocks that are removed again are reset right away.
+ * Blocks broadcast to a group of players are queued together, so the packets for them are still only created once per tick.
+ */
+public class FakeBlockQueue {
+	
+	//how many blocks of distance to the portal one unit of misalignment with the look direction is worth
+	private static final double LOOK_ALIGNMENT_WEIGHT = 8;
+	
+	private final JavaPlugin plugin;
+	private final ConfigSettings configSettings;
+	private final PacketHandler packetHandler;
+	
+	private final Map<UUID, BlockQueue> playerQueues;
+	private final Queue<BroadcastQueue> broadcastQueues;
+	private BukkitRunnable sendTimer;
+	
+	public FakeBlockQueue(JavaPlugin plugin,
+	                      ConfigSettings configSettings,
+	                      PacketHandler packetHandler) {
+		
+		this.plugin = plugin;
+		this.configSettings = configSettings;
+		this.packetHandler = packetHandler;
+		
+		playerQueues = new ConcurrentHashMap<>();
+		broadcastQueues = new ConcurrentLinkedQueue<>();
+		startSendTimer();
+	}
+	
+	public void reload() {
+		
+		disable();
+		startSendTimer();
+	}
+	
+	public void disable() {
+		
+		sendTimer.cancel();
+		playerQueues.clear();
+		broadcastQueues.clear();
+	}
+	
+	/**
+	 * Queues fake blocks to be displayed to the player. Can be called from any thread.
+	 *
+	 * @param portalRect rectangle of the portal the blocks are seen through, the blocks closest to it are sent first
+	 */
+	public void displayFakeBlocks(Player player, BlockTypeMap blockCopies, AxisAlignedRect portalRect) {
+		
+		if (blockCopies.isEmpty()) {
+			return;
+		}
+		
+		//without a limit, blocks from view workers are still queued, so the packets are not created while they lock a session
+		if (configSettings.getFakeBlocksPerTick() == 0 && Bukkit.isPrimaryThread()) {
+			packetHandler.displayFakeBlocks(player, blockCopies);
+			return;
+		}
+		
+		queueFakeBlocks(player, blockCopies, portalRect);
+	}
+	
+	/**
+	 * Queues the same fake blocks to be displayed to all the players, with the packets only being created once per tick.
+	 * The blocks sent to the group count towards the limit of each of the players.
+	 * Older versions of the blocks still waiting in the players' queues are dropped.
+	 */
+	public void broadcastFakeBlocks(List<Player> players, BlockTypeMap blockCopies, AxisAlignedRect portalRect) {
+		
+		if (blockCopies.isEmpty() || players.isEmpty()) {
+			return;
+		}
+		
+		for (Player player : players) {
+			
+			BlockQueue queue = playerQueues.get(player.getUniqueId());
+			
+			if (queue != null) {
+				synchronized (queue) {
+					queue.blocks.removeAll(blockCopies);
+				}
+			}
+		}
+		
+		if (configSettings.getFakeBlocksPerTick() == 0 && Bukkit.isPrimaryThread()) {
+			packetHandler.displayFakeBlocks(players, blockCopies);
+			return;
+		}
+		
+		BroadcastQueue queue = new BroadcastQueue(players);
+		queue.blocks.putAll(blockCopies);
+		queue.portalRect = portalRect;
+		broadcastQueues.add(queue);
+	}
+	
+	/**
+	 * Sends the real blocks for the fake blocks immediately and drops them from the queue if they weren't sent yet.
+	 */
+	public void removeFakeBlocks(Player player, BlockTypeMap blockCopies) {
+		
+		leaveBroadcasts(player, blockCopies);
+		BlockQueue queue = playerQueues.get(player.getUniqueId());
+		
+		if (queue != null) {
+			synchronized (queue) {
+				queue.blocks.removeAll(blockCopies);
+			}
+		}
+		
+		packetHandler.removeFakeBlocks(player, blockCopies);
+	}
+	
+	/**
+	 * Drops all fake blocks queued for the player without sending them.
+	 */
+	public void clear(Player player) {
+		
+		playerQueues.remove(player.getUniqueId());
+		
+		for (BroadcastQueue queue : broadcastQueues) {
+			synchronized (queue) {
+				queue.players.remove(player);
+			}
+		}
+	}
+	
+	private void queueFakeBlocks(Player player, BlockTypeMap blockCopies, AxisAlignedRect portalRect) {
+		
+		BlockQueue queue = playerQueues.computeIfAbsent(player.getUniqueId(), id -> new BlockQueue());
+		
+		synchronized (queue) {
+			queue.blocks.putAll(blockCopies);
+			queue.portalRect = portalRect;
+		}
+	}
+	
+	/**
+	 * Takes the player out of all broadcasts that still contain some of the removed blocks.
+	 * The other blocks of these broadcasts are moved to the player's own queue, so the removed blocks don't show up again later.
+	 */
+	private void leaveBroadcasts(Player player, BlockTypeMap removedBlocks) {
+		
+		for (BroadcastQueue queue : broadcastQueues) {
+			
+			BlockTypeMap remainingBlocks;
+			
+			synchronized (queue) {
+				
+				if (!queue.players.contains(player) || !containsAny(queue.blocks, removedBlocks)) {
+					continue;
+				}
+				
+				queue.players.remove(player);
+				remainingBlocks = new BlockTypeMap(queue.blocks);
+			}
+			
+			remainingBlocks.removeAll(removedBlocks);
+			
+			if (!remainingBlocks.isEmpty()) {
+				queueFakeBlocks(player, remainingBlocks, queue.portalRect);
+			}
+		}
+	}
+	
+	private boolean containsAny(BlockTypeMap blocks, BlockTypeMap otherBlocks) {
+		
+		boolean[] containsAny = {false};
+		
+		otherBlocks.forEach((blockKey, blockType) -> {
+			if (blocks.containsKey(blockKey)) {
+				containsAny[0] = true;
+			}
+		});
+		
+		return containsAny[0];
+	}
+	
+	private void startSendTimer() {
+		
+		MessageUtils.printDebug("Starting fake block send timer");
+		
+		sendTimer = new BukkitRunnable() {
+			@Override
+			public void run() {
+				sendQueuedBlocks();
+			}
+		};
+		
+		sendTimer.runTaskTimer(plugin, 0, 1);
+	}
+	
+	private void sendQueuedBlocks() {
+		
+		int blocksPerTick = configSettings.getFakeBlocksPerTick();
+		
+		if (blocksPerTick == 0) {
+			blocksPerTick = Integer.MAX_VALUE;
+		}
+		
+		//broadcasts are sent first because they are older than the blocks queued for the players after them
+		Map<UUID, Integer> sentBlockCounts = sendBroadcasts(blocksPerTick);
+		
+		for (Map.Entry<UUID, BlockQueue> entry : playerQueues.entrySet()) {
+			
+			Player player = Bukkit.getPlayer(entry.getKey());
+			BlockQueue queue = entry.getValue();
+			
+			if (player == null) {
+				playerQueues.remove(entry.getKey());
+				continue;
+			}
+			
+			int blockBudget = blocksPerTick - sentBlockCounts.getOrDefault(player.getUniqueId(), 0);
+			BlockTypeMap blocksToSend;
+			
+			synchronized (queue) {
+				
+				if (queue.blocks.isEmpty() || blockBudget <= 0) {
+					continue;
+				}
+				
+				blocksToSend = pollFirstBlocks(queue, player.getEyeLocation(), blockBudget);
+			}
+			
+			packetHandler.displayFakeBlocks(player, blocksToSend);
+		}
+	}
+	
+	/**
+	 * Sends as many blocks of each broadcast as all of its players can still receive this tick.
+	 * Returns the count of blocks sent to each player.
+	 */
+	private Map<UUID, Integer> sendBroadcasts(int blocksPerTick) {
+		
+		Map<UUID, Integer> sentBlockCounts = new HashMap<>();
+		Iterator<BroadcastQueue> iterator = broadcastQueues.iterator();
+		
+		while (iterator.hasNext()) {
+			
+			BroadcastQueue queue = iterator.next();
+			List<Player> players;
+			BlockTypeMap blocksToSend;
+			
+			synchronized (queue) {
+				
+				queue.players.removeIf(player -> !player.isOnline());
+				
+				if (queue.players.isEmpty() || queue.blocks.isEmpty()) {
+					iterator.remove();
+					continue;
+				}
+				
+				int blockBudget = blocksPerTick;
+				
+				for (Player player : queue.players) {
+					blockBudget = Math.min(blockBudget, blocksPerTick - sentBlockCounts.getOrDefault(player.getUniqueId(), 0));
+				}
+				
+				if (blockBudget <= 0) {
+					continue;
+				}
+				
+				players = new ArrayList<>(queue.players);
+				blocksToSend = pollFirstBlocks(queue, players.get(0).getEyeLocation(), blockBudget);
+			}
+			
+			packetHandler.displayFakeBlocks(players, blocksToSend);
+			
+			for (Player player : players) {
+				sentBlockCounts.merge(player.getUniqueId(), blocksToSend.size(), Integer::sum);
+			}
+		}
+		
+		return sentBlockCounts;
+	}
+	
+	/**
+	 * Removes the blocks with the highest priority from the queue and returns them.
+	 */
+	private BlockTypeMap pollFirstBlocks(BlockQueue queue, Location eyeLoc, int maxCount) {
+		
+		BlockTypeMap queuedBlocks = queue.blocks;
+		
+		if (queuedBlocks.size() <= maxCount) {
+			
+			queue.blocks = new BlockTypeMap();
+			return queuedBlocks;
+		}
+		
+		Vector eyePos = eyeLoc.toVector();
+		Vector lookDir = eyeLoc.getDirection();
+		Vector portalMin = queue.portalRect.getMin();
+		Vector portalNormal = queue.portalRect.getAxis().getNormal();
+		
+		long[] blockKeys = new long[queuedBlocks.size()];
+		long[] sortedIndices = new long[queuedBlocks.size()];
+		int[] i = {0};
+		
+		//the priorities are never negative, so their float bits can be sorted like ints, together with the index in the lower bits
+		queuedBlocks.forEach((blockKey, blockType) -> {
+			
+			float priority = (float) getPriority(blockKey, eyePos, lookDir, portalMin, portalNormal);
+			blockKeys[i[0]] = blockKey;
+			sortedIndices[i[0]] = (long) Float.floatToIntBits(priority) << 32 | i[0];
+			++i[0];
+		});
+		
+		Arrays.sort(sortedIndices);
+		BlockTypeMap polledBlocks = new BlockTypeMap(maxCount);
+		
+		for (int k = 0; k < maxCount; k++) {
+			
+			long blockKey = blockKeys[(int) sortedIndices[k]];
+			polledBlocks.put(blockKey, queuedBlocks.remove(blockKey));
+		}
+		
+		return polledBlocks;
+	}
+	
+	/**
+	 * Returns the distance of the block to the portal plane plus a penalty for how far it lies away from the look direction.
+	 * Lower values are sent first.
+	 */
+	private double getPriority(long blockKey, Vector eyePos, Vector lookDir, Vector portalMin, Vector portalNormal) {
+		
+		double dx = BlockTypeMap.getX(blockKey) + 0.5 - eyePos.getX();
+		double dy = BlockTypeMap.getY(blockKey) + 0.5 - eyePos.getY();
+		double dz = BlockTypeMap.getZ(blockKey) + 0.5 - eyePos.getZ();
+		
+		double portalDist = Math.abs(
+				(BlockTypeMap.getX(blockKey) + 0.5 - portalMin.getX()) * portalNormal.getX() +
+				(BlockTypeMap.getZ(blockKey) + 0.5 - portalMin.getZ()) * portalNormal.getZ());
+		
+		double eyeDist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		double alignment = eyeDist == 0 ? 1 : (dx * lookDir.getX() + dy * lookDir.getY() + dz * lookDir.getZ()) / eyeDist;
+		
+		return portalDist + Math.max(0, 1 - alignment) * LOOK_ALIGNMENT_WEIGHT;
+	}
+	
+	private static class BlockQueue {
+		
+		BlockTypeMap blocks = new BlockTypeMap();
+		AxisAlignedRect portalRect;
+	}
+	
+	private static class BroadcastQueue extends BlockQueue {
+		
+		private final List<Player> players;
+		
+		BroadcastQueue(List<Player> players) {
+			this.players = new ArrayList<>(players);
+		}
+	}
+}
\ No newline at end of file
@@ -1,32 +1,48 @@
 package me.gorgeousone.netherview.handlers;
 
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
 import me.gorgeousone.netherview.blockcache.ProjectionCache;
 import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.geometry.viewfrustum.FrustumSpans;
 import me.gorgeousone.netherview.geometry.viewfrustum.ViewFrustum;
 import me.gorgeousone.netherview.portal.Portal;
 import me.gorgeousone.netherview.portal.ProjectionEntity;
 import me.gorgeousone.netherview.wrapper.WrappedBoundingBox;
-import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Stores what is displayed to a player of a portal projection.
+ * The projected blocks, frustum and spans are updated by view worker threads, so they must only be accessed while synchronizing on the session.
+ */
 public class PlayerViewSession {
 	
 	private final UUID playerId;
 	private final Portal viewedPortal;
 	
-	private ProjectionCache viewedPortalSide;
-	private ViewFrustum lastViewFrustum;
+	private volatile ProjectionCache viewedPortalSide;
+	private volatile ViewFrustum lastViewFrustum;
+	private volatile FrustumSpans lastFrustumSpans;
 	
-	private final Map<BlockVec, BlockType> projectedBlocks;
+	//sorted keys of the chunk sections and chunk columns blocks of the projection can be displayed in
+	private volatile long[] projectionSectionKeys;
+	private volatile long[] projectionColumnKeys;
+	
+	private final AtomicReference<Runnable> pendingUpdate;
+	private long lastUpdateId;
+	private long lastAppliedUpdateId;
+	private volatile boolean isClosed;
+	
+	//replaced with a new map on every change, so it can be read without locking the session
+	private volatile BlockTypeMap projectedBlocks;
 	private final Set<Entity> hiddenEntities;
 	private final Set<ProjectionEntity> projectedEntities;
 	
@@ -35,9 +51,12 @@ public class PlayerViewSession {
 		this.playerId = player.getUniqueId();
 		this.viewedPortal = viewedPortal;
 		
-		this.projectedBlocks = new HashMap<>();
+		this.projectedBlocks = new BlockTypeMap();
 		this.hiddenEntities = new HashSet<>();
 		this.projectedEntities = new HashSet<>();
+		this.pendingUpdate = new AtomicReference<>();
+		this.projectionSectionKeys = new long[0];
+		this.projectionColumnKeys = new long[0];
 	}
 	
 	public UUID getPlayerId() {
@@ -59,8 +78,90 @@ public class PlayerViewSession {
 		return viewedPortalSide;
 	}
 	
-	public void setViewedPortalSide(ProjectionCache viewedPortalSide) {
+	public synchronized void setViewedPortalSide(ProjectionCache viewedPortalSide) {
+		
+		if (viewedPortalSide == this.viewedPortalSide) {
+			return;
+		}
+		
+		//spans of the other side of the portal can't be compared to the new ones
+		lastFrustumSpans = null;
 		this.viewedPortalSide = viewedPortalSide;
+		
+		Set<Long> sectionKeys = new HashSet<>();
+		Set<Long> columnKeys = new HashSet<>();
+		
+		if (viewedPortalSide != null) {
+			addChunkKeys(viewedPortal.getFrame().getMin(), viewedPortal.getFrame().getMax(), sectionKeys, columnKeys);
+			addChunkKeys(viewedPortalSide.getMin(), viewedPortalSide.getMax(), sectionKeys, columnKeys);
+		}
+		
+		projectionSectionKeys = toSortedArray(sectionKeys);
+		projectionColumnKeys = toSortedArray(columnKeys);
+	}
+	
+	/**
+	 * Returns true if blocks of the projection can be displayed inside the 16x16x16 chunk section.
+	 * Can be called from any thread.
+	 */
+	public boolean isProjectionSection(int sectionX, int sectionY, int sectionZ) {
+		return Arrays.binarySearch(projectionSectionKeys, BlockTypeMap.toKey(sectionX, sectionY, sectionZ)) >= 0;
+	}
+	
+	/**
+	 * Returns true if blocks of the projection can be displayed inside the chunk.
+	 * Can be called from any thread.
+	 */
+	public boolean isProjectionChunk(int chunkX, int chunkZ) {
+		return Arrays.binarySearch(projectionColumnKeys, BlockTypeMap.toKey(chunkX, 0, chunkZ)) >= 0;
+	}
+	
+	/**
+	 * Returns a copy of the currently projected blocks that are located inside the chunk.
+	 * Can be called from any thread.
+	 */
+	public BlockTypeMap getProjectedBlocksInChunk(int chunkX, int chunkZ) {
+		
+		BlockTypeMap blocksInChunk = new BlockTypeMap();
+		
+		projectedBlocks.forEach((blockKey, blockType) -> {
+			if (BlockTypeMap.getX(blockKey) >> 4 == chunkX && BlockTypeMap.getZ(blockKey) >> 4 == chunkZ) {
+				blocksInChunk.put(blockKey, blockType);
+			}
+		});
+		
+		return blocksInChunk;
+	}
+	
+	/**
+	 * Adds the keys of all chunk sections and chunks intersecting the box between min and (exclusive) max.
+	 */
+	private static void addChunkKeys(BlockVec min, BlockVec max, Set<Long> sectionKeys, Set<Long> columnKeys) {
+		
+		for (int x = min.getX() >> 4; x <= (max.getX() - 1) >> 4; x++) {
+			for (int z = min.getZ() >> 4; z <= (max.getZ() - 1) >> 4; z++) {
+				
+				columnKeys.add(BlockTypeMap.toKey(x, 0, z));
+				
+				for (int y = min.getY() >> 4; y <= (max.getY() - 1) >> 4; y++) {
+					sectionKeys.add(BlockTypeMap.toKey(x, y, z));
+				}
+			}
+		}
+	}
+	
+	private static long[] toSortedArray(Set<Long> keys) {
+		
+		long[] array = new long[keys.size()];
+		int i = 0;
+		
+		for (long key : keys) {
+			array[i] = key;
+			++i;
+		}
+		
+		Arrays.sort(array);
+		return array;
 	}
 	
 	public ViewFrustum getLastViewFrustum() {
@@ -76,14 +177,83 @@ public class PlayerViewSession {
 	}
 	
 	/**
-	 * Returns a Map of BlockTypes linked to their location that are currently displayed with fake blocks to the player.
+	 * Returns a new id for an update of the projection. Only called on the main thread.
+	 */
+	public long nextUpdateId() {
+		return ++lastUpdateId;
+	}
+	
+	/**
+	 * Returns true if the update or a newer one was already displayed.
+	 */
+	public boolean isOutdatedUpdate(long updateId) {
+		return updateId <= lastAppliedUpdateId;
+	}
+	
+	/**
+	 * Marks the update as displayed and returns true if no newer update was displayed before.
+	 */
+	public boolean tryApplyUpdate(long updateId) {
+		
+		if (updateId <= lastAppliedUpdateId) {
+			return false;
+		}
+		
+		lastAppliedUpdateId = updateId;
+		return true;
+	}
+	
+	/**
+	 * Replaces the update waiting to be processed and returns true if there was none waiting before.
+	 */
+	public boolean offerUpdate(Runnable update) {
+		return pendingUpdate.getAndSet(update) == null;
+	}
+	
+	/**
+	 * Returns and removes the update waiting to be processed (or null).
+	 */
+	public Runnable pollUpdate() {
+		return pendingUpdate.getAndSet(null);
+	}
+	
+	/**
+	 * Returns true if the projection was removed and no more blocks should be displayed with this session.
+	 */
+	public boolean isClosed() {
+		return isClosed;
+	}
+	
+	public void close() {
+		isClosed = true;
+	}
+	
+	/**
+	 * Returns the spans of the frustum that the currently projected blocks were calculated with
+	 * or null if they have to be calculated from scratch on the next update.
+	 */
+	public FrustumSpans getLastFrustumSpans() {
+		return lastFrustumSpans;
+	}
+	
+	public void setLastFrustumSpans(FrustumSpans lastFrustumSpans) {
+		this.lastFrustumSpans = lastFrustumSpans;
+	}
+	
+	/**
+	 * Returns the BlockTypes linked to their location that are currently displayed with fake blocks to the player.
 	 * The method is being used very frequently so it does not check for the player's permission to view portal projections.
-	 * Returns (and internally adds) an empty Map if no projected blocks found.
+	 * The map is an immutable snapshot that is replaced with setProjectedBlocks() on each view update, so callers must not modify it
+	 * but can read it without holding the session's lock (like when resending blocks for changed blocks or chunks).
 	 */
-	public Map<BlockVec, BlockType> getProjectedBlocks() {
+	public BlockTypeMap getProjectedBlocks() {
 		return projectedBlocks;
 	}
 	
+	public void setProjectedBlocks(BlockTypeMap projectedBlocks) {
+		this.projectedBlocks = projectedBlocks;
+	}
+	
 	public Set<Entity> getHiddenEntities() {
 		return hiddenEntities;
 	}
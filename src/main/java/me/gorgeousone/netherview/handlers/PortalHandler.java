@@ -4,18 +4,24 @@ import me.gorgeousone.netherview.ConfigSettings;
 import me.gorgeousone.netherview.blockcache.BlockCache;
 import me.gorgeousone.netherview.blockcache.BlockCacheFactory;
 import me.gorgeousone.netherview.blockcache.ProjectionCache;
+import me.gorgeousone.netherview.blockcache.SnapshotBlockSource;
 import me.gorgeousone.netherview.blockcache.Transform;
 import me.gorgeousone.netherview.blockcache.TransformFactory;
+import me.gorgeousone.netherview.blockcache.WorldBlockSource;
 import me.gorgeousone.netherview.customportal.CustomPortal;
 import me.gorgeousone.netherview.event.PortalLinkEvent;
 import me.gorgeousone.netherview.event.PortalUnlinkEvent;
 import me.gorgeousone.netherview.event.UnlinkReason;
+import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.geometry.Cuboid;
 import me.gorgeousone.netherview.message.Message;
 import me.gorgeousone.netherview.message.MessageException;
 import me.gorgeousone.netherview.message.MessageUtils;
 import me.gorgeousone.netherview.portal.Portal;
 import me.gorgeousone.netherview.portal.PortalLocator;
-import me.gorgeousone.netherview.utils.TimeUtils;
+import me.gorgeousone.netherview.utils.ChunkUtils;
+import me.gorgeousone.netherview.utils.VersionUtils;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -26,12 +32,19 @@ import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 /**
  * Handler class for storing portals and managing their cached blocks.
@@ -44,8 +57,17 @@ public class PortalHandler {
 	
 	private final Map<UUID, Set<Portal>> portalInWorlds;
 	
-	private final Map<Portal, Long> loadedPortals;
-	private BukkitRunnable expirationTimer;
+	private final CacheLifecycleHandler cacheLifecycle;
+	private long evictedCacheCount;
+	//the block changes made while the caches of a portal are being created from snapshots
+	private final Map<Portal, PendingCacheLoad> pendingCacheLoads;
+	private Consumer<Portal> cacheLoadListener;
+	private Supplier<Set<ProjectionCache>> viewedProjections;
+	
+	private final LinkedHashMap<Portal, Set<UUID>> prefetchQueue;
+	private BukkitRunnable prefetchTimer;
+	private long prefetchHitCount;
+	private long prefetchMissCount;
 	
 	public PortalHandler(JavaPlugin main,
 	                     ConfigSettings configSettings,
@@ -56,30 +78,46 @@ public class PortalHandler {
 		this.portalMaterial = portalMaterial;
 		
 		portalInWorlds = new HashMap<>();
-		loadedPortals = new HashMap<>();
+		cacheLifecycle = new CacheLifecycleHandler(plugin, this::unloadCachesOf);
+		pendingCacheLoads = new HashMap<>();
+		cacheLoadListener = portal -> {};
+		viewedProjections = Collections::emptySet;
+		prefetchQueue = new LinkedHashMap<>();
 		
 		startCacheExpirationTimer();
+		startPrefetchTimer();
 	}
 	
 	public void reload() {
 		
 		disable();
 		startCacheExpirationTimer();
+		startPrefetchTimer();
 	}
 	
 	public void disable() {
 		
 		portalInWorlds.clear();
-		loadedPortals.clear();
-		expirationTimer.cancel();
+		cacheLifecycle.stopExpirationTimer();
+		cacheLifecycle.clear();
+		pendingCacheLoads.clear();
+		prefetchQueue.clear();
+		
+		if (prefetchTimer != null) {
+			prefetchTimer.cancel();
+			prefetchTimer = null;
+		}
 	}
 	
 	public Set<Portal> getPortals(World world) {
 		return portalInWorlds.getOrDefault(world.getUID(), new HashSet<>());
 	}
 	
+	/**
+	 * Returns all portals with loaded block caches or projection caches. The returned set can safely be read from other threads.
+	 */
 	public Set<Portal> getLoadedPortals() {
-		return loadedPortals.keySet();
+		return cacheLifecycle.getLoadedPortals();
 	}
 	
 	public boolean hasPortals(World world) {
@@ -201,7 +239,8 @@ public class PortalHandler {
 			linkedPortal.removeLink();
 		}
 		
-		loadedPortals.remove(portal);
+		unloadCachesOf(portal);
+		prefetchQueue.remove(portal);
 		
 		if (portal.isLinked()) {
 			
@@ -245,19 +284,7 @@ public class PortalHandler {
 	 * Returns a Set of all portals connected with their projections to the passed portal. Returns an empty set if none was found.
 	 */
 	public Set<Portal> getPortalsLinkedTo(Portal portal) {
-		
-		Set<Portal> linkedToPortals = new HashSet<>();
-		
-		for (UUID worldId : portalInWorlds.keySet()) {
-			for (Portal secondPortal : portalInWorlds.get(worldId)) {
-				
-				if (secondPortal.isLinked() && secondPortal.getCounterPortal() == portal) {
-					linkedToPortals.add(secondPortal);
-				}
-			}
-		}
-		
-		return linkedToPortals;
+		return new HashSet<>(portal.getLinkedPortals());
 	}
 	
 	/**
@@ -287,10 +314,10 @@ public class PortalHandler {
 		Set<ProjectionCache> linkedToProjections = new HashSet<>();
 		Portal portal = cache.getPortal();
 		
-		for (Portal linkedPortal : getPortalsLinkedTo(portal)) {
-		
+		for (Portal linkedPortal : portal.getLinkedPortals()) {
+			
 			if (linkedPortal.projectionsAreLoaded()) {
-		
+				
 				ProjectionCache frontProjection = linkedPortal.getFrontProjection();
 				linkedToProjections.add(frontProjection.getSourceCache() == cache ? frontProjection : linkedPortal.getBackProjection());
 			}
@@ -304,11 +331,15 @@ public class PortalHandler {
 		portal.setBlockCaches(BlockCacheFactory.createBlockCaches(
 				portal,
 				configSettings.getPortalProjectionDist(),
-				configSettings.getWorldBorderBlockType(portal.getWorld().getEnvironment())));
+				configSettings.getWorldBorderBlockType(portal.getWorld().getEnvironment()),
+				new WorldBlockSource(portal.getWorld(), configSettings.isSyncChunkLoadingEnabled())));
 		
+		fillMissingChunks(portal.getFrontCache());
+		fillMissingChunks(portal.getBackCache());
 		addPortalToExpirationTimer(portal);
 		
-		MessageUtils.printDebug("Loaded block data for portal " + portal.toString());
+		MessageUtils.printDebug("Loaded block data for portal " + portal.toString() + " ("
+		                        + (portal.getFrontCache().getBytesUsed() + portal.getBackCache().getBytesUsed()) / 1024 + " KB)");
 	}
 	
 	public void loadProjectionCachesOf(Portal portal) {
@@ -327,16 +358,297 @@ public class PortalHandler {
 			loadBlockCachesOf(counterPortal);
 		}
 		
-		BlockCache frontCache = counterPortal.getFrontCache();
-		BlockCache backCache = counterPortal.getBackCache();
+		portal.setProjectionCaches(createProjectionCaches(portal, counterPortal.getFrontCache(), counterPortal.getBackCache(), linkTransform, isLinkTransformFlipped));
+		addPortalToExpirationTimer(portal);
+	}
+	
+	/**
+	 * Loads the projection caches of a portal without blocking the main thread. If the block caches of the counter portal
+	 * are not loaded yet, they are copied from chunk snapshots asynchronously and both are set to the portals on the main thread afterwards.
+	 * Legacy servers load the caches synchronously.
+	 */
+	public void loadProjectionCachesAsync(Portal portal) {
 		
-		if (isLinkTransformFlipped) {
-			portal.setProjectionCaches(BlockCacheFactory.createProjectionCaches(portal, backCache, frontCache, linkTransform));
+		if (!portal.isLinked() || isLoadingCachesOf(portal)) {
+			return;
+		}
+		
+		Portal counterPortal = portal.getCounterPortal();
+		
+		if (VersionUtils.IS_LEGACY_SERVER || counterPortal.blockCachesAreLoaded()) {
+			loadProjectionCachesOf(portal);
+			return;
+		}
+		
+		boolean isLinkTransformFlipped = isLinkTransformFlipped(portal);
+		Transform linkTransform = TransformFactory.calculateBlockLinkTransform(portal, counterPortal, isLinkTransformFlipped);
+		
+		int projectionDist = configSettings.getPortalProjectionDist();
+		BlockType borderBlockType = configSettings.getWorldBorderBlockType(counterPortal.getWorld().getEnvironment());
+		SnapshotBlockSource chunkSnapshots = BlockCacheFactory.takeChunkSnapshots(counterPortal, projectionDist, configSettings.isSyncChunkLoadingEnabled());
+		
+		pendingCacheLoads.put(portal, new PendingCacheLoad(counterPortal.getWorld(), BlockCacheFactory.getCacheBounds(counterPortal, projectionDist)));
+		
+		new BukkitRunnable() {
+			@Override
+			public void run() {
+				
+				try {
+					Map.Entry<BlockCache, BlockCache> blockCaches = BlockCacheFactory.createBlockCaches(counterPortal, projectionDist, borderBlockType, chunkSnapshots);
+					Map.Entry<ProjectionCache, ProjectionCache> projectionCaches = createProjectionCaches(
+							portal,
+							blockCaches.getKey(),
+							blockCaches.getValue(),
+							linkTransform,
+							isLinkTransformFlipped);
+					
+					Bukkit.getScheduler().runTask(plugin, () -> setLoadedCaches(portal, counterPortal, blockCaches, projectionCaches, linkTransform));
+					
+				} catch (Exception e) {
+					
+					plugin.getLogger().log(Level.WARNING, "Could not load block data for portal " + counterPortal.toString(), e);
+					Bukkit.getScheduler().runTask(plugin, () -> pendingCacheLoads.remove(portal));
+				}
+			}
+		}.runTaskAsynchronously(plugin);
+	}
+	
+	/**
+	 * Queues the caches of the portal to be loaded in the background for a player approaching it.
+	 * Prefetches are started one after another with a short delay to not put too much load on the server at once.
+	 * Legacy servers can't load caches asynchronously and don't prefetch them, like servers with prefetching disabled.
+	 */
+	public void requestPrefetch(Portal portal, Player player) {
+		
+		UUID playerId = player.getUniqueId();
+		Set<UUID> requests = prefetchQueue.get(portal);
+		
+		if (requests != null && requests.contains(playerId)) {
+			return;
+		}
+		
+		cancelPrefetch(player);
+		
+		if (prefetchTimer == null ||
+		    !portal.isLinked() ||
+		    portal.projectionsAreLoaded() ||
+		    isLoadingCachesOf(portal)) {
+			return;
+		}
+		
+		prefetchQueue.computeIfAbsent(portal, set -> new HashSet<>()).add(playerId);
+	}
+	
+	/**
+	 * Removes the player's request to prefetch the caches of a portal. Prefetches that were already started are not cancelled.
+	 */
+	public void cancelPrefetch(Player player) {
+		
+		UUID playerId = player.getUniqueId();
+		prefetchQueue.values().removeIf(requests -> requests.remove(playerId) && requests.isEmpty());
+	}
+	
+	/**
+	 * Counts whether the projection caches of a portal were already loaded when a player came into it's display range.
+	 */
+	public void countPrefetchResult(Portal portal) {
+		
+		if (portal.projectionsAreLoaded()) {
+			prefetchHitCount++;
 		} else {
-			portal.setProjectionCaches(BlockCacheFactory.createProjectionCaches(portal, frontCache, backCache, linkTransform));
+			prefetchMissCount++;
+		}
+	}
+	
+	/**
+	 * Returns how many times the projections of a portal were already loaded when a player came into it's display range.
+	 */
+	public long getPrefetchHitCount() {
+		return prefetchHitCount;
+	}
+	
+	/**
+	 * Returns how many times the projections of a portal still had to be loaded when a player came into it's display range.
+	 */
+	public long getPrefetchMissCount() {
+		return prefetchMissCount;
+	}
+	
+	/**
+	 * Starts a scheduler that starts loading the caches of the longest waiting prefetch request every few ticks.
+	 * Nothing is started if prefetching is disabled or not supported by the server.
+	 */
+	private void startPrefetchTimer() {
+		
+		if (configSettings.getPortalPrefetchRangeSquared() == 0 || VersionUtils.IS_LEGACY_SERVER) {
+			return;
+		}
+		
+		MessageUtils.printDebug("Starting portal prefetch timer");
+		long timerPeriod = 5;
+		
+		prefetchTimer = new BukkitRunnable() {
+			@Override
+			public void run() {
+				
+				Iterator<Portal> queuedPortals = prefetchQueue.keySet().iterator();
+				
+				if (!queuedPortals.hasNext()) {
+					return;
+				}
+				
+				Portal portal = queuedPortals.next();
+				queuedPortals.remove();
+				
+				if (!portalDoesNotExist(portal)) {
+					MessageUtils.printDebug("Prefetching block data for portal " + portal.toString());
+					loadProjectionCachesAsync(portal);
+				}
+			}
+		};
+		
+		prefetchTimer.runTaskTimer(plugin, timerPeriod, timerPeriod);
+	}
+	
+	/**
+	 * Sets the function called on the main thread whenever the asynchronously created projection caches of a portal were set to it.
+	 */
+	public void setCacheLoadListener(Consumer<Portal> cacheLoadListener) {
+		this.cacheLoadListener = cacheLoadListener;
+	}
+	
+	/**
+	 * Sets the function returning all projection caches currently viewed by players, which caches are never evicted.
+	 */
+	public void setViewedProjections(Supplier<Set<ProjectionCache>> viewedProjections) {
+		this.viewedProjections = viewedProjections;
+	}
+	
+	/**
+	 * Returns true if the projection caches of the portal are currently being created asynchronously.
+	 */
+	public boolean isLoadingCachesOf(Portal portal) {
+		return pendingCacheLoads.containsKey(portal);
+	}
+	
+	/**
+	 * Remembers changed blocks inside block caches currently being created from chunk snapshots,
+	 * so the changes can be applied to the caches once they are finished.
+	 */
+	public void recordPendingBlockChanges(World world, Map<BlockVec, BlockType> newBlockTypes) {
+		
+		for (PendingCacheLoad pendingLoad : pendingCacheLoads.values()) {
+			
+			if (pendingLoad.world != world) {
+				continue;
+			}
+			
+			for (Map.Entry<BlockVec, BlockType> entry : newBlockTypes.entrySet()) {
+				if (pendingLoad.bounds.contains(entry.getKey())) {
+					pendingLoad.blockChanges.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sets the asynchronously created caches to the portal and it's counter portal if nothing changed about them in the meantime.
+	 */
+	private void setLoadedCaches(Portal portal,
+	                             Portal counterPortal,
+	                             Map.Entry<BlockCache, BlockCache> blockCaches,
+	                             Map.Entry<ProjectionCache, ProjectionCache> projectionCaches,
+	                             Transform linkTransform) {
+		
+		PendingCacheLoad pendingLoad = pendingCacheLoads.remove(portal);
+		
+		if (pendingLoad == null) {
+			return;
+		}
+		
+		//discard the caches if the portals were removed, re-linked or loaded otherwise during creation
+		if (portal.getCounterPortal() != counterPortal ||
+		    portal.projectionsAreLoaded() ||
+		    !getPortals(portal.getWorld()).contains(portal) ||
+		    !getPortals(counterPortal.getWorld()).contains(counterPortal)) {
+			return;
+		}
+		
+		//another load created the block caches in the meantime, which are up to date and used for the projections instead
+		if (counterPortal.blockCachesAreLoaded()) {
+			
+			loadProjectionCachesOf(portal);
+			cacheLoadListener.accept(portal);
+			return;
 		}
 		
+		//blocks changed after the chunk snapshots were taken
+		applyBlockChanges(blockCaches.getKey(), pendingLoad.blockChanges);
+		applyBlockChanges(blockCaches.getValue(), pendingLoad.blockChanges);
+		
+		counterPortal.setBlockCaches(blockCaches);
+		addPortalToExpirationTimer(counterPortal);
+		
+		fillMissingChunks(blockCaches.getKey());
+		fillMissingChunks(blockCaches.getValue());
+		
+		MessageUtils.printDebug("Loaded block data for portal " + counterPortal.toString() + " ("
+		                        + (counterPortal.getFrontCache().getBytesUsed() + counterPortal.getBackCache().getBytesUsed()) / 1024 + " KB)");
+		
+		portal.setTpTransform(linkTransform.clone().invert());
+		portal.setProjectionCaches(projectionCaches);
 		addPortalToExpirationTimer(portal);
+		cacheLoadListener.accept(portal);
+	}
+	
+	private void applyBlockChanges(BlockCache cache, Map<BlockVec, BlockType> newBlockTypes) {
+		
+		Map<BlockVec, BlockType> blocksInCache = new HashMap<>();
+		
+		for (Map.Entry<BlockVec, BlockType> entry : newBlockTypes.entrySet()) {
+			if (cache.containsWithMargin(entry.getKey())) {
+				blocksInCache.put(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		if (!blocksInCache.isEmpty()) {
+			BlockCacheFactory.updateBlocksInCache(cache, blocksInCache);
+		}
+	}
+	
+	/**
+	 * Copies the chunks missing in a block cache that are loaded by now and requests the remaining ones
+	 * to be loaded asynchronously if the server supports it.
+	 */
+	private void fillMissingChunks(BlockCache cache) {
+		
+		World world = cache.getWorld();
+		
+		for (long chunkKey : new ArrayList<>(cache.getMissingChunks())) {
+			
+			int chunkX = ChunkUtils.getChunkX(chunkKey);
+			int chunkZ = ChunkUtils.getChunkZ(chunkKey);
+			
+			if (world.isChunkLoaded(chunkX, chunkZ)) {
+				BlockCacheFactory.copyMissingChunk(cache, chunkX, chunkZ, new WorldBlockSource(world, false));
+				
+			} else {
+				ChunkUtils.loadChunkAsync(world, chunkX, chunkZ);
+			}
+		}
+	}
+	
+	private Map.Entry<ProjectionCache, ProjectionCache> createProjectionCaches(Portal portal,
+	                                                                          BlockCache frontCache,
+	                                                                          BlockCache backCache,
+	                                                                          Transform linkTransform,
+	                                                                          boolean isLinkTransformFlipped) {
+		
+		if (isLinkTransformFlipped) {
+			return BlockCacheFactory.createProjectionCaches(portal, backCache, frontCache, linkTransform);
+		} else {
+			return BlockCacheFactory.createProjectionCaches(portal, frontCache, backCache, linkTransform);
+		}
 	}
 	
 	public boolean isLinkTransformFlipped(Portal portal) {
@@ -344,11 +656,115 @@ public class PortalHandler {
 	}
 	
 	private void addPortalToExpirationTimer(Portal portal) {
-		loadedPortals.put(portal, System.currentTimeMillis());
+		
+		cacheLifecycle.markUsed(portal);
+		evictCachesOverBudget(portal);
+	}
+	
+	/**
+	 * Returns the estimated memory in bytes used by the block caches and projection caches of the portal.
+	 */
+	public long getCacheSize(Portal portal) {
+		
+		long cacheSize = 0;
+		
+		if (portal.blockCachesAreLoaded()) {
+			cacheSize += portal.getFrontCache().getBytesUsed() + portal.getBackCache().getBytesUsed();
+		}
+		
+		if (portal.projectionsAreLoaded()) {
+			cacheSize += portal.getFrontProjection().getBytesUsed() + portal.getBackProjection().getBytesUsed();
+		}
+		
+		return cacheSize;
+	}
+	
+	/**
+	 * Returns the estimated memory in bytes used by the caches of all loaded portals.
+	 */
+	public long getTotalCacheSize() {
+		
+		long totalSize = 0;
+		
+		for (Portal portal : cacheLifecycle.getLoadedPortals()) {
+			totalSize += getCacheSize(portal);
+		}
+		
+		return totalSize;
+	}
+	
+	/**
+	 * Returns the count of portals which caches were removed because they weren't used for the expiration time.
+	 */
+	public long getExpiredCacheCount() {
+		return cacheLifecycle.getExpiredCacheCount();
+	}
+	
+	/**
+	 * Returns the count of portals which caches were removed to stay inside the cache memory budget.
+	 */
+	public long getEvictedCacheCount() {
+		return evictedCacheCount;
+	}
+	
+	/**
+	 * Removes the caches of the least recently used portals until all caches fit into the configured memory budget again.
+	 * The caches of the passed portal, it's counter portal and of all portals that players are currently viewing projections of are never removed.
+	 */
+	private void evictCachesOverBudget(Portal usedPortal) {
+		
+		long cacheBudget = configSettings.getCacheMemoryBudget();
+		long totalSize = getTotalCacheSize();
+		
+		if (totalSize <= cacheBudget) {
+			return;
+		}
+		
+		Set<Portal> protectedPortals = new HashSet<>();
+		protectedPortals.add(usedPortal);
+		protectedPortals.add(usedPortal.getCounterPortal());
+		
+		for (ProjectionCache projection : viewedProjections.get()) {
+			
+			protectedPortals.add(projection.getPortal());
+			protectedPortals.add(projection.getSourceCache().getPortal());
+		}
+		
+		List<Portal> portalsByLastUse = cacheLifecycle.getPortalsByLastUse();
+		
+		for (int i = 0; i < portalsByLastUse.size() && totalSize > cacheBudget; i++) {
+			
+			Portal portal = portalsByLastUse.get(i);
+			
+			if (protectedPortals.contains(portal)) {
+				continue;
+			}
+			
+			totalSize -= getCacheSize(portal);
+			
+			unloadCachesOf(portal);
+			evictedCacheCount++;
+			MessageUtils.printDebug("Removed cached block data of portal " + portal.toString() + " to stay inside the cache memory budget");
+		}
+	}
+	
+	/**
+	 * Removes the block caches and projection caches of a portal and the projections of other portals that display it's block caches.
+	 * The caches are only detached from the portals, their data must stay untouched because view workers might still be reading them.
+	 */
+	private void unloadCachesOf(Portal portal) {
+		
+		for (Portal linkedPortal : getPortalsLinkedTo(portal)) {
+			linkedPortal.removeProjectionCaches();
+		}
+		
+		portal.removeProjectionCaches();
+		portal.removeBlockCaches();
+		cacheLifecycle.remove(portal);
 	}
 	
 	public void updateExpirationTime(Portal portal) {
-		loadedPortals.put(portal, System.currentTimeMillis());
+		cacheLifecycle.markUsed(portal);
 	}
 	
 	/**
@@ -389,36 +805,23 @@ public class PortalHandler {
 	 * Starts a scheduler that handles the removal of block caches (and projection caches) that weren't used for a certain expiration time.
 	 */
 	private void startCacheExpirationTimer() {
+		cacheLifecycle.startExpirationTimer(Duration.ofMinutes(configSettings.getCacheExpirationMinutes()).toMillis());
+	}
+	
+	/**
+	 * The area of block caches being created from chunk snapshots and the blocks changed inside it in the meantime.
+	 */
+	private static class PendingCacheLoad {
 		
-		long cacheExpirationDuration = Duration.ofMinutes(10).toMillis();
-		long timerPeriod = 10 * 20;
-		
-		MessageUtils.printDebug("Starting cache expiration timer");
-		
-		expirationTimer = new BukkitRunnable() {
-			@Override
-			public void run() {
-				
-				Iterator<Map.Entry<Portal, Long>> entries = loadedPortals.entrySet().iterator();
-				long now = System.currentTimeMillis();
-				
-				while (entries.hasNext()) {
-					
-					Map.Entry<Portal, Long> entry = entries.next();
-					long timeSinceLastUse = now - entry.getValue();
-					Portal portal = entry.getKey();
-					
-					if (timeSinceLastUse > cacheExpirationDuration) {
-						
-						portal.removeProjectionCaches();
-						portal.removeBlockCaches();
-						entries.remove();
-						MessageUtils.printDebug("Removed cached block data of portal " + portal.toString());
-					}
-				}
-			}
-		};
+		private final World world;
+		private final Cuboid bounds;
+		private final Map<BlockVec, BlockType> blockChanges;
 		
-		expirationTimer.runTaskTimerAsynchronously(plugin, TimeUtils.getTicksTillNextMinute(), timerPeriod);
+		PendingCacheLoad(World world, Cuboid bounds) {
+			
+			this.world = world;
+			this.bounds = bounds;
+			this.blockChanges = new HashMap<>();
+		}
 	}
 }
\ No newline at end of file
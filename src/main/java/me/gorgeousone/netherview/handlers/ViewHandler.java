@@ -3,12 +3,16 @@ package me.gorgeousone.netherview.handlers;
 import me.gorgeousone.netherview.ConfigSettings;
 import me.gorgeousone.netherview.NetherViewPlugin;
 import me.gorgeousone.netherview.blockcache.BlockCache;
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
 import me.gorgeousone.netherview.blockcache.ProjectionCache;
 import me.gorgeousone.netherview.blockcache.Transform;
 import me.gorgeousone.netherview.geometry.AxisAlignedRect;
 import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.geometry.viewfrustum.FrustumSpans;
+import me.gorgeousone.netherview.geometry.viewfrustum.OcclusionCulling;
 import me.gorgeousone.netherview.geometry.viewfrustum.ViewFrustum;
 import me.gorgeousone.netherview.geometry.viewfrustum.ViewFrustumFactory;
+import me.gorgeousone.netherview.message.MessageUtils;
 import me.gorgeousone.netherview.packet.PacketHandler;
 import me.gorgeousone.netherview.portal.Portal;
 import me.gorgeousone.netherview.portal.ProjectionEntity;
@@ -20,47 +24,123 @@ import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.Vector;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 /**
  * Handler class for running and updating the portal projections for players.
  */
 public class ViewHandler {
 	
+	//how often a worker calculates an update again if block updates changed the displayed blocks in the meantime
+	private static final int MAX_UPDATE_ATTEMPTS = 3;
+	
+	private final JavaPlugin plugin;
 	private final ConfigSettings configSettings;
 	private final PortalHandler portalHandler;
 	private final PacketHandler packetHandler;
+	private final FakeBlockQueue fakeBlockQueue;
 	
 	private final Map<UUID, Boolean> portalViewEnabled;
 	private final Map<UUID, PlayerViewSession> viewSessions;
+	private final Map<UUID, Portal> portalsInDisplayRange;
+	
+	//the view sessions sorted by the portal side they are viewing, kept up to date whenever a session starts, ends or switches sides
+	private final Map<ProjectionCache, Set<PlayerViewSession>> portalSideViewers;
+	private final Map<ProjectionCache, Set<PlayerViewSession>> unmodifiablePortalSideViewers;
+	
+	//block changes of the current tick that still have to be forwarded to the projections
+	private final Map<BlockCache, Map<BlockVec, BlockType>> pendingCacheUpdates;
+	
+	private ExecutorService viewWorkers;
+	private Consumer<Player> viewDisabledListener;
 	
-	public ViewHandler(ConfigSettings configSettings, PortalHandler portalHandler,
+	public ViewHandler(JavaPlugin plugin,
+	                   ConfigSettings configSettings,
+	                   PortalHandler portalHandler,
 	                   PacketHandler packetHandler) {
 		
+		this.plugin = plugin;
 		this.configSettings = configSettings;
 		this.portalHandler = portalHandler;
 		this.packetHandler = packetHandler;
+		this.fakeBlockQueue = new FakeBlockQueue(plugin, configSettings, packetHandler);
 		
 		portalViewEnabled = new HashMap<>();
-		viewSessions = new HashMap<>();
+		viewSessions = new ConcurrentHashMap<>();
+		portalsInDisplayRange = new HashMap<>();
+		portalSideViewers = new HashMap<>();
+		unmodifiablePortalSideViewers = Collections.unmodifiableMap(portalSideViewers);
+		pendingCacheUpdates = new LinkedHashMap<>();
+		viewDisabledListener = player -> {};
+		
+		startViewWorkers();
 	}
 	
 	public void reload() {
 		
+		disable();
+		startViewWorkers();
+		fakeBlockQueue.reload();
+	}
+	
+	public void disable() {
+		
 		for (Player player : Bukkit.getOnlinePlayers()) {
 			hidePortalProjection(player);
 		}
 		
 		viewSessions.clear();
+		portalsInDisplayRange.clear();
+		portalSideViewers.clear();
+		pendingCacheUpdates.clear();
+		fakeBlockQueue.disable();
+		
+		if (viewWorkers != null) {
+			viewWorkers.shutdownNow();
+			viewWorkers = null;
+		}
+	}
+	
+	/**
+	 * Starts the threads calculating which projection blocks players can see, if any are enabled in the config.
+	 */
+	private void startViewWorkers() {
+		
+		int workerCount = configSettings.getViewWorkerThreads();
+		
+		if (workerCount == 0) {
+			return;
+		}
+		
+		MessageUtils.printDebug("Starting " + workerCount + " view worker threads");
+		
+		viewWorkers = Executors.newFixedThreadPool(workerCount, runnable -> {
+			
+			Thread thread = new Thread(runnable, "Nether View Worker");
+			thread.setDaemon(true);
+			thread.setUncaughtExceptionHandler((failedThread, e) ->
+					plugin.getLogger().log(Level.SEVERE, "Failed to update a portal projection on " + failedThread.getName(), e));
+			return thread;
+		});
 	}
 	
 	/**
@@ -87,10 +167,25 @@ public class ViewHandler {
 			
 			if (!viewingEnabled) {
 				hidePortalProjection(player);
+				viewDisabledListener.accept(player);
 			}
 		}
 	}
 	
+	/**
+	 * Sets the function called when a player disabled portal viewing, to drop view updates that are still scheduled for them.
+	 */
+	public void setViewDisabledListener(Consumer<Player> viewDisabledListener) {
+		this.viewDisabledListener = viewDisabledListener;
+	}
+	
+	/**
+	 * Returns the portal the player was in display range of at their last view update or null.
+	 */
+	public Portal getPortalInDisplayRange(Player player) {
+		return portalsInDisplayRange.get(player.getUniqueId());
+	}
+	
 	public Collection<PlayerViewSession> getViewSessions() {
 		return viewSessions.values();
 	}
@@ -124,13 +219,33 @@ public class ViewHandler {
 		
 		PlayerViewSession session = getViewSession(player);
 		
-		packetHandler.removeFakeBlocks(player, session.getProjectedBlocks());
+		synchronized (session) {
+			session.close();
+			fakeBlockQueue.removeFakeBlocks(player, session.getProjectedBlocks());
+		}
+		
 		packetHandler.showEntities(player, session.getHiddenEntities());
 		packetHandler.hideProjectedEntities(player, session.getProjectedEntities());
 		
 		unregisterPortalProjection(player);
 	}
 	
+	/**
+	 * Queues the projection blocks inside a chunk to be sent again, after the chunk's data overwrote them on the client.
+	 * Only used for chunk packets the projection could not be written into. Can be called from any thread.
+	 */
+	public void resendProjectionBlocks(Player player, int chunkX, int chunkZ) {
+		
+		PlayerViewSession session = getViewSession(player);
+		
+		if (session == null || session.isClosed()) {
+			return;
+		}
+		
+		BlockTypeMap blocksInChunk = session.getProjectedBlocksInChunk(chunkX, chunkZ);
+		fakeBlockQueue.displayFakeBlocks(player, blocksInChunk, session.getViewedPortal().getPortalRect());
+	}
+	
 	public void projectEntity(Player player, ProjectionEntity projectionEntity, Transform transform) {
 		
 		getViewSession(player).getProjectedEntities().add(projectionEntity);
@@ -169,6 +284,8 @@ public class ViewHandler {
 	public void unregisterPlayer(Player player) {
 		
 		portalViewEnabled.remove(player.getUniqueId());
+		portalsInDisplayRange.remove(player.getUniqueId());
+		portalHandler.cancelPrefetch(player);
 		unregisterPortalProjection(player);
 	}
 	
@@ -176,7 +293,46 @@ public class ViewHandler {
 	 * Removes the player's portal projection from the system.
 	 */
 	public void unregisterPortalProjection(Player player) {
-		viewSessions.remove(player.getUniqueId());
+		
+		PlayerViewSession session = viewSessions.remove(player.getUniqueId());
+		
+		if (session != null) {
+			
+			//stops view workers from displaying anything more with this session
+			session.close();
+			removePortalSideViewer(session);
+			fakeBlockQueue.clear(player);
+		}
+	}
+	
+	/**
+	 * Sets the portal side the session is viewing and moves the session to the viewers of that side.
+	 */
+	private void setViewedPortalSide(PlayerViewSession session, ProjectionCache projection) {
+		
+		if (session.getViewedPortalSide() == projection) {
+			return;
+		}
+		
+		removePortalSideViewer(session);
+		session.setViewedPortalSide(projection);
+		portalSideViewers.computeIfAbsent(projection, set -> new HashSet<>()).add(session);
+	}
+	
+	private void removePortalSideViewer(PlayerViewSession session) {
+		
+		ProjectionCache projection = session.getViewedPortalSide();
+		Set<PlayerViewSession> viewers = portalSideViewers.get(projection);
+		
+		if (viewers == null) {
+			return;
+		}
+		
+		viewers.remove(session);
+		
+		if (viewers.isEmpty()) {
+			portalSideViewers.remove(projection);
+		}
 	}
 	
 	/**
@@ -187,7 +343,10 @@ public class ViewHandler {
 		Portal closestPortal = portalHandler.getClosestPortal(playerEyeLoc, true);
 		
 		if (portalHandler.portalDoesNotExist(closestPortal)) {
+			
 			hidePortalProjection(player);
+			portalsInDisplayRange.remove(player.getUniqueId());
+			portalHandler.cancelPrefetch(player);
 			return;
 		}
 		
@@ -196,9 +355,17 @@ public class ViewHandler {
 		if (portalDistance.lengthSquared() > configSettings.getPortalDisplayRangeSquared()) {
 			
 			hidePortalProjection(player);
+			portalsInDisplayRange.remove(player.getUniqueId());
+			prefetchPortalCaches(player, playerEyeLoc, closestPortal, portalDistance);
 			return;
 		}
 		
+		portalHandler.cancelPrefetch(player);
+		
+		if (portalsInDisplayRange.put(player.getUniqueId(), closestPortal) != closestPortal) {
+			portalHandler.countPrefetchResult(closestPortal);
+		}
+		
 		AxisAlignedRect portalRect = closestPortal.getPortalRect();
 		
 		//display the portal totally normal if the player is not standing next to or in the portal
@@ -215,6 +382,20 @@ public class ViewHandler {
 		}
 	}
 	
+	/**
+	 * Requests the caches of the portal to be loaded in the background if the player is inside the prefetch range and looking towards the portal.
+	 * Otherwise the player's prefetch request is cancelled.
+	 */
+	private void prefetchPortalCaches(Player player, Location playerEyeLoc, Portal portal, Vector portalDistance) {
+		
+		if (portalDistance.lengthSquared() <= configSettings.getPortalPrefetchRangeSquared() &&
+		    playerEyeLoc.getDirection().dot(portalDistance) > 0) {
+			portalHandler.requestPrefetch(portal, player);
+		} else {
+			portalHandler.cancelPrefetch(player);
+		}
+	}
+	
 	/**
 	 * Returns the distance of the location to the rectangle on the axis orthogonal to the axis of the rectangle.
 	 */
@@ -241,15 +422,21 @@ public class ViewHandler {
 			return;
 		}
 		
+		//keep the projection hidden until the block data of the portal is loaded
 		if (!portal.projectionsAreLoaded()) {
-			portalHandler.loadProjectionCachesOf(portal);
+			
+			portalHandler.loadProjectionCachesAsync(portal);
+			
+			if (!portal.projectionsAreLoaded()) {
+				hidePortalProjection(player);
+				return;
+			}
 		}
 		
 		portalHandler.updateExpirationTime(portal);
 		portalHandler.updateExpirationTime(portal.getCounterPortal());
 		
 		ProjectionCache projection = ViewFrustumFactory.isPlayerBehindPortal(player, portal) ? portal.getFrontProjection() : portal.getBackProjection();
-		ViewFrustum playerFrustum = ViewFrustumFactory.createFrustum(playerEyeLoc.toVector(), portal.getPortalRect(), projection.getCacheLength());
 		
 		PlayerViewSession session = getViewSession(player);
 		
@@ -262,7 +449,7 @@ public class ViewHandler {
 			session = createViewSession(player, portal);
 		}
 		
-		session.setViewedPortalSide(projection);
+		setViewedPortalSide(session, projection);
 		
 		if (!displayFrustum) {
 			
@@ -274,42 +461,294 @@ public class ViewHandler {
 				session.getHiddenEntities().clear();
 				session.getProjectedEntities().clear();
 			}
+		}
+		
+		PlayerViewSession viewSession = session;
+		Vector viewPoint = playerEyeLoc.toVector();
+		long updateId = session.nextUpdateId();
+		
+		queueProjectionUpdate(viewSession, () -> updateProjectionBlocks(
+				player, viewSession, updateId, viewPoint, portal, projection, displayFrustum, hidePortalBlocks));
+	}
+	
+	/**
+	 * Passes the update of the projection blocks to the view workers or runs it directly if there are none.
+	 * Only the latest update of a session is kept if the workers are behind.
+	 */
+	private void queueProjectionUpdate(PlayerViewSession session, Runnable update) {
+		
+		if (viewWorkers == null) {
+			update.run();
+			return;
+		}
+		
+		if (session.offerUpdate(update)) {
 			
-		} else {
-			session.setLastViewFrustum(playerFrustum);
+			viewWorkers.execute(() -> {
+				
+				Runnable latestUpdate = session.pollUpdate();
+				
+				if (latestUpdate != null) {
+					latestUpdate.run();
+				}
+			});
 		}
+	}
+	
+	/**
+	 * Calculates the view frustum of the player and displays the projection blocks visible with it.
+	 * This can run on a view worker thread. The visible blocks and their differences to the displayed blocks are calculated
+	 * without locking the session, the lock is only held to check if the update is still the latest and to swap in the new blocks.
+	 */
+	private void updateProjectionBlocks(Player player,
+	                                    PlayerViewSession session,
+	                                    long updateId,
+	                                    Vector viewPoint,
+	                                    Portal portal,
+	                                    ProjectionCache projection,
+	                                    boolean displayFrustum,
+	                                    boolean hidePortalBlocks) {
+		
+		ViewFrustum playerFrustum = displayFrustum ? createFrustum(viewPoint, portal, projection) : null;
+		
+		for (int attempt = 1; ; attempt++) {
+			
+			BlockTypeMap displayedBlocks;
+			FrustumSpans lastFrustumSpans;
+			
+			synchronized (session) {
+				
+				if (isOutdatedUpdate(session, projection, updateId)) {
+					return;
+				}
+				
+				displayedBlocks = session.getProjectedBlocks();
+				lastFrustumSpans = session.getLastFrustumSpans();
+				
+				//block updates kept changing the displayed blocks, so this time they are compared while holding the lock
+				if (attempt == MAX_UPDATE_ATTEMPTS) {
+					
+					ProjectionUpdate update = calculateProjectionUpdate(portal, projection, playerFrustum, displayedBlocks, lastFrustumSpans, hidePortalBlocks);
+					applyProjectionUpdate(player, session, updateId, playerFrustum, update);
+					return;
+				}
+			}
+			
+			ProjectionUpdate update = calculateProjectionUpdate(portal, projection, playerFrustum, displayedBlocks, lastFrustumSpans, hidePortalBlocks);
+			
+			synchronized (session) {
+				
+				if (isOutdatedUpdate(session, projection, updateId)) {
+					return;
+				}
+				
+				//a block update changed the displayed blocks in the meantime, so the differences have to be calculated again
+				if (session.getProjectedBlocks() != displayedBlocks || session.getLastFrustumSpans() != lastFrustumSpans) {
+					continue;
+				}
+				
+				applyProjectionUpdate(player, session, updateId, playerFrustum, update);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if the projection was removed, the player switched sides or a newer update was displayed in the meantime.
+	 */
+	private boolean isOutdatedUpdate(PlayerViewSession session, ProjectionCache projection, long updateId) {
+		return session.isClosed() || session.getViewedPortalSide() != projection || session.isOutdatedUpdate(updateId);
+	}
+	
+	/**
+	 * Swaps in the new displayed blocks of the session and passes the changed fake blocks on to be sent. Only called while holding the session's lock.
+	 */
+	private void applyProjectionUpdate(Player player,
+	                                   PlayerViewSession session,
+	                                   long updateId,
+	                                   ViewFrustum playerFrustum,
+	                                   ProjectionUpdate update) {
+		
+		session.tryApplyUpdate(updateId);
+		session.setLastViewFrustum(playerFrustum);
+		session.setLastFrustumSpans(update.frustumSpans);
+		session.setProjectedBlocks(update.displayedBlocks);
+		
+		removeFakeBlocks(player, update.removedBlocks);
+		fakeBlockQueue.displayFakeBlocks(player, update.addedBlocks, session.getViewedPortal().getPortalRect());
+	}
+	
+	/**
+	 * Returns the view frustum of the player for the projection. If enabled, frustums are shared between players at nearly the same eye position.
+	 */
+	private ViewFrustum createFrustum(Vector viewPoint, Portal portal, ProjectionCache projection) {
+		
+		int viewPointGridSize = configSettings.getViewPointGridSize();
 		
-		displayProjectionBlocks(player, portal, projection, playerFrustum, displayFrustum, hidePortalBlocks);
+		if (viewPointGridSize > 0) {
+			return projection.getViewFrustumCache().getFrustum(viewPoint, portal.getPortalRect(), viewPointGridSize);
+		}
+		
+		return ViewFrustumFactory.createFrustum(viewPoint, portal.getPortalRect(), projection.getCacheLength());
 	}
 	
 	/**
-	 * Collects and displays fake blocks for player to view the portal projection.
+	 * Collects the fake blocks for the player to view the portal projection and compares them to the currently displayed blocks.
+	 * The displayed blocks and last frustum spans are only read.
 	 */
-	private void displayProjectionBlocks(Player player,
-	                                     Portal portal,
-	                                     ProjectionCache projection,
-	                                     ViewFrustum playerFrustum,
-	                                     boolean displayFrustum,
-	                                     boolean hidePortalBlocks) {
+	private ProjectionUpdate calculateProjectionUpdate(Portal portal,
+	                                                   ProjectionCache projection,
+	                                                   ViewFrustum playerFrustum,
+	                                                   BlockTypeMap displayedBlocks,
+	                                                   FrustumSpans lastFrustumSpans,
+	                                                   boolean hidePortalBlocks) {
 		
-		Map<BlockVec, BlockType> visibleBlocks = new HashMap<>();
+		BlockTypeMap visibleBlocks;
+		FrustumSpans frustumSpans = null;
+		
+		if (playerFrustum != null) {
+			
+			boolean occlusionCulling = configSettings.isOcclusionCullingEnabled();
+			
+			//which blocks are hidden depends on the exact view point, so the spans can't be compared with occlusion culling
+			if (!occlusionCulling) {
+				frustumSpans = playerFrustum.getSpans();
+			}
+			
+			//only the blocks between the last and the new frustum have to be updated if the last frustum is still up to date
+			if (frustumSpans != null && lastFrustumSpans != null && lastFrustumSpans.getAxis() == frustumSpans.getAxis()) {
+				return compareSpans(portal, projection, displayedBlocks, lastFrustumSpans, frustumSpans, hidePortalBlocks);
+			}
+			
+			if (occlusionCulling) {
+				
+				//the shared visible blocks are copied because portal blocks get added to them
+				visibleBlocks = configSettings.getViewPointGridSize() > 0 ?
+						new BlockTypeMap(projection.getViewFrustumCache().getOcclusionCulledBlocks(playerFrustum)) :
+						OcclusionCulling.getVisibleBlocks(playerFrustum, projection);
+				
+			} else {
+				visibleBlocks = frustumSpans.getContainedBlocks(projection);
+			}
+			
+		} else {
+			visibleBlocks = new BlockTypeMap();
+		}
 		
-		if (playerFrustum != null && displayFrustum) {
-			visibleBlocks = playerFrustum.getContainedBlocks(projection);
+		if (hidePortalBlocks) {
+			
+			BlockType air = BlockType.of(Material.AIR);
+			
+			for (Block portalBlock : portal.getPortalBlocks()) {
+				visibleBlocks.put(portalBlock.getX(), portalBlock.getY(), portalBlock.getZ(), air);
+			}
 		}
 		
+		return compareBlocks(displayedBlocks, visibleBlocks, frustumSpans);
+	}
+	
+	/**
+	 * Finds the visible blocks that are not displayed yet and the displayed blocks that are not visible anymore.
+	 */
+	private ProjectionUpdate compareBlocks(BlockTypeMap displayedBlocks,
+	                                       BlockTypeMap visibleBlocks,
+	                                       FrustumSpans frustumSpans) {
+		
+		BlockTypeMap addedBlocks = new BlockTypeMap();
+		BlockTypeMap removedBlocks = new BlockTypeMap();
+		
+		displayedBlocks.forEach((blockKey, blockType) -> {
+			if (!visibleBlocks.containsKey(blockKey)) {
+				removedBlocks.put(blockKey, blockType);
+			}
+		});
+		
+		//blocks that are already displayed are only sent again if they changed
+		visibleBlocks.forEach((blockKey, blockType) -> {
+			if (!blockType.equals(displayedBlocks.get(blockKey))) {
+				addedBlocks.put(blockKey, blockType);
+			}
+		});
+		
+		return new ProjectionUpdate(visibleBlocks, addedBlocks, removedBlocks, frustumSpans);
+	}
+	
+	/**
+	 * Finds the blocks that entered the player's view since the last frustum and the ones that left it.
+	 * Only the differences between the spans of both frustums are iterated instead of all visible blocks.
+	 */
+	private ProjectionUpdate compareSpans(Portal portal,
+	                                      ProjectionCache projection,
+	                                      BlockTypeMap displayedBlocks,
+	                                      FrustumSpans lastFrustumSpans,
+	                                      FrustumSpans frustumSpans,
+	                                      boolean hidePortalBlocks) {
+		
+		BlockTypeMap addedBlocks = new BlockTypeMap();
+		BlockTypeMap removedBlocks = new BlockTypeMap();
+		
+		frustumSpans.forEachBlockNotIn(lastFrustumSpans, (x, y, z) -> {
+			
+			BlockType blockType = projection.getBlockTypeAt(x, y, z);
+			
+			if (blockType != null) {
+				addedBlocks.put(x, y, z, blockType);
+			}
+		});
+		
+		lastFrustumSpans.forEachBlockNotIn(frustumSpans, (x, y, z) -> {
+			
+			long blockKey = BlockTypeMap.toKey(x, y, z);
+			BlockType blockType = displayedBlocks.get(blockKey);
+			
+			if (blockType != null) {
+				removedBlocks.put(blockKey, blockType);
+			}
+		});
+		
+		//hidden portal blocks stay air no matter if they are inside the frustum or not
 		if (hidePortalBlocks) {
 			
 			for (Block portalBlock : portal.getPortalBlocks()) {
-				visibleBlocks.put(new BlockVec(portalBlock), BlockType.of(Material.AIR));
+				
+				long blockKey = BlockTypeMap.toKey(portalBlock.getX(), portalBlock.getY(), portalBlock.getZ());
+				addedBlocks.remove(blockKey);
+				removedBlocks.remove(blockKey);
 			}
 		}
 		
-		updateDisplayedBlocks(player, visibleBlocks);
+		BlockTypeMap newDisplayedBlocks = new BlockTypeMap(displayedBlocks);
+		newDisplayedBlocks.removeAll(removedBlocks);
+		newDisplayedBlocks.putAll(addedBlocks);
+		return new ProjectionUpdate(newDisplayedBlocks, addedBlocks, removedBlocks, frustumSpans);
+	}
+	
+	/**
+	 * Collects the changed blocks of a cache, so all changes of one tick (like from an explosion or a loaded chunk)
+	 * are sent to the projections and their viewers together at the end of the tick.
+	 */
+	public void queueProjectionUpdates(BlockCache cache, Map<BlockVec, BlockType> updatedCopies) {
+		
+		if (pendingCacheUpdates.isEmpty()) {
+			plugin.getServer().getScheduler().runTask(plugin, this::flushProjectionUpdates);
+		}
+		
+		//later changes of the same block replace earlier ones
+		pendingCacheUpdates.computeIfAbsent(cache, map -> new HashMap<>()).putAll(updatedCopies);
+	}
+	
+	private void flushProjectionUpdates() {
+		
+		for (Map.Entry<BlockCache, Map<BlockVec, BlockType>> entry : pendingCacheUpdates.entrySet()) {
+			updateProjections(entry.getKey(), entry.getValue());
+		}
+		
+		pendingCacheUpdates.clear();
 	}
 	
 	/**
 	 * Forwards the changes made in a block cache to all the linked projection caches. This also live-updates what players see.
+	 * Viewers that see the same changed blocks are sent the same packets, so they are only created once for each group.
 	 */
 	public void updateProjections(BlockCache cache, Map<BlockVec, BlockType> updatedBlocks) {
 		
@@ -317,12 +756,19 @@ public class ViewHandler {
 		
 		for (ProjectionCache projection : portalHandler.getProjectionsLinkedTo(cache)) {
 			
-			Map<BlockVec, BlockType> projectionUpdates = updateProjection(projection, updatedBlocks);
+			BlockTypeMap projectionUpdates = updateProjection(projection, updatedBlocks);
+			projection.getViewFrustumCache().invalidateVisibleBlocks();
 			
-			if (!sortedSessions.containsKey(projection)) {
+			if (!sortedSessions.containsKey(projection) || projectionUpdates.isEmpty()) {
 				continue;
 			}
 			
+			long[] updateKeys = new long[projectionUpdates.size()];
+			int[] i = {0};
+			projectionUpdates.forEach((blockKey, blockType) -> updateKeys[i[0]++] = blockKey);
+			
+			Map<BitSet, List<PlayerViewSession>> viewerGroups = new HashMap<>();
+			
 			for (PlayerViewSession session : sortedSessions.get(projection)) {
 				
 				ViewFrustum playerFrustum = session.getLastViewFrustum();
@@ -331,100 +777,135 @@ public class ViewHandler {
 					continue;
 				}
 				
-				Map<BlockVec, BlockType> newBlocksInFrustum = getBlocksInFrustum(playerFrustum, projectionUpdates);
-				Player player = session.getPlayer();
+				BitSet updatesInFrustum = getBlocksInFrustum(playerFrustum, updateKeys);
+				
+				if (!updatesInFrustum.isEmpty()) {
+					viewerGroups.computeIfAbsent(updatesInFrustum, list -> new ArrayList<>()).add(session);
+				}
+			}
+			
+			for (Map.Entry<BitSet, List<PlayerViewSession>> group : viewerGroups.entrySet()) {
+				
+				BitSet updatesInFrustum = group.getKey();
+				BlockTypeMap newBlocksInFrustum = new BlockTypeMap(updatesInFrustum.cardinality());
+				List<Player> viewers = new ArrayList<>();
+				
+				for (int k = updatesInFrustum.nextSetBit(0); k >= 0; k = updatesInFrustum.nextSetBit(k + 1)) {
+					newBlocksInFrustum.put(updateKeys[k], projectionUpdates.get(updateKeys[k]));
+				}
+				
+				for (PlayerViewSession session : group.getValue()) {
+					
+					Player player = session.getPlayer();
+					
+					if (player == null) {
+						continue;
+					}
+					
+					synchronized (session) {
+						
+						BlockTypeMap displayedBlocks = new BlockTypeMap(session.getProjectedBlocks());
+						displayedBlocks.putAll(newBlocksInFrustum);
+						
+						//the displayed blocks might not match the frustum spans anymore, so the next update compares all blocks again
+						session.setLastFrustumSpans(null);
+						session.setProjectedBlocks(displayedBlocks);
+					}
+					
+					viewers.add(player);
+				}
 				
-				getViewSession(player).getProjectedBlocks().putAll(newBlocksInFrustum);
-				packetHandler.displayFakeBlocks(player, newBlocksInFrustum);
+				fakeBlockQueue.broadcastFakeBlocks(viewers, newBlocksInFrustum, projection.getPortal().getPortalRect());
 			}
 		}
 	}
 	
-	private Map<BlockVec, BlockType> updateProjection(ProjectionCache projection,
-	                                                  Map<BlockVec, BlockType> updatedBlocks) {
+	/**
+	 * Returns the changes of the source cache as they appear in the projection cache.
+	 * The projection cache itself reads the changed blocks from the source cache, so nothing needs to be copied.
+	 */
+	private BlockTypeMap updateProjection(ProjectionCache projection,
+	                                      Map<BlockVec, BlockType> updatedBlocks) {
 		
-		Map<BlockVec, BlockType> projectionUpdates = new HashMap<>();
+		BlockTypeMap projectionUpdates = new BlockTypeMap(updatedBlocks.size());
+		Transform blockTransform = projection.getLinkTransform();
 		
 		for (Map.Entry<BlockVec, BlockType> entry : updatedBlocks.entrySet()) {
 			
-			Transform blockTransform = projection.getLinkTransform();
-			BlockVec projectionBlockPos = blockTransform.transformVec(entry.getKey());
 			BlockType sourceBlockType = entry.getValue();
 			
 			if (sourceBlockType == null) {
-				projection.removeBlockDataAt(projectionBlockPos);
 				continue;
 			}
 			
-			BlockType projectionBlockType = sourceBlockType.rotate(blockTransform.getQuarterTurns());
-			projection.setBlockTypeAt(projectionBlockPos, projectionBlockType);
-			projectionUpdates.put(projectionBlockPos, projectionBlockType);
+			BlockVec projectionBlockPos = blockTransform.transformVec(entry.getKey().clone());
+			projectionUpdates.put(BlockTypeMap.toKey(projectionBlockPos), projection.getRotatedBlockType(sourceBlockType));
 		}
 		
 		return projectionUpdates;
 	}
 	
 	/**
-	 * Returns a map of all the blocks in a block cache that are visible with the player's view frustum through the portal frame.
+	 * Returns the indices of the changed blocks that are visible with the player's view frustum through the portal frame.
 	 */
-	private Map<BlockVec, BlockType> getBlocksInFrustum(ViewFrustum playerFrustum,
-	                                                    Map<BlockVec, BlockType> projectionUpdates) {
+	private BitSet getBlocksInFrustum(ViewFrustum playerFrustum, long[] updateKeys) {
 		
-		Map<BlockVec, BlockType> blocksInFrustum = new HashMap<>();
+		BitSet blocksInFrustum = new BitSet(updateKeys.length);
 		
-		for (Map.Entry<BlockVec, BlockType> entry : projectionUpdates.entrySet()) {
+		for (int i = 0; i < updateKeys.length; i++) {
 			
-			BlockVec blockPos = entry.getKey();
-			BlockType blockType = entry.getValue();
+			long blockKey = updateKeys[i];
 			
-			if (blockType != null && playerFrustum.containsBlock(blockPos.toVector())) {
-				blocksInFrustum.put(blockPos, blockType);
+			if (playerFrustum.containsBlock(BlockTypeMap.getX(blockKey), BlockTypeMap.getY(blockKey), BlockTypeMap.getZ(blockKey))) {
+				blocksInFrustum.set(i);
 			}
 		}
 		
 		return blocksInFrustum;
 	}
 	
+	/**
+	 * Returns a live, unmodifiable view of all view sessions sorted by the portal side they are viewing.
+	 * The sets of sessions must not be modified either.
+	 */
 	public Map<ProjectionCache, Set<PlayerViewSession>> getSessionsSortedByPortalSides() {
-		
-		Map<ProjectionCache, Set<PlayerViewSession>> sortedViewers = new HashMap<>();
-		
-		for (PlayerViewSession session : viewSessions.values()) {
-			
-			ProjectionCache projection = session.getViewedPortalSide();
-			sortedViewers.computeIfAbsent(projection, set -> new HashSet<>());
-			sortedViewers.get(projection).add(session);
-		}
-		
-		return sortedViewers;
+		return unmodifiablePortalSideViewers;
 	}
 	
 	/**
-	 * Adding new blocks to the portal animation for a player.
-	 * But first redundant blocks are filtered out and outdated blocks are refreshed for the player.
+	 * Sends the real blocks for fake blocks that are not displayed anymore. The real blocks can only be read on the main thread,
+	 * so updates from view workers are passed on to it. Blocks that got displayed again in the meantime are left out.
 	 */
-	private void updateDisplayedBlocks(Player player, Map<BlockVec, BlockType> newBlocksToDisplay) {
+	private void removeFakeBlocks(Player player, BlockTypeMap removedBlocks) {
 		
-		Map<BlockVec, BlockType> lastDisplayedBlocks = getViewSession(player).getProjectedBlocks();
-		Map<BlockVec, BlockType> removedBlocks = new HashMap<>();
+		if (removedBlocks.isEmpty()) {
+			return;
+		}
 		
-		Iterator<BlockVec> blockIter = lastDisplayedBlocks.keySet().iterator();
+		if (Bukkit.isPrimaryThread()) {
+			fakeBlockQueue.removeFakeBlocks(player, removedBlocks);
+			return;
+		}
 		
-		while (blockIter.hasNext()) {
-			
-			BlockVec blockPos = blockIter.next();
-			
-			if (!newBlocksToDisplay.containsKey(blockPos)) {
-				removedBlocks.put(blockPos, lastDisplayedBlocks.get(blockPos));
-				blockIter.remove();
-			}
+		//the plugin might have been disabled while the worker was calculating
+		if (!plugin.isEnabled()) {
+			return;
 		}
 		
-		newBlocksToDisplay.keySet().removeIf(lastDisplayedBlocks::containsKey);
-		lastDisplayedBlocks.putAll(newBlocksToDisplay);
+		try {
+			Bukkit.getScheduler().runTask(plugin, () -> removeRemainingFakeBlocks(player, removedBlocks));
+		} catch (IllegalPluginAccessException ignored) {}
+	}
+	
+	private void removeRemainingFakeBlocks(Player player, BlockTypeMap removedBlocks) {
+		
+		PlayerViewSession currentSession = getViewSession(player);
 		
-		packetHandler.removeFakeBlocks(player, removedBlocks);
-		packetHandler.displayFakeBlocks(player, newBlocksToDisplay);
+		if (currentSession != null) {
+			removedBlocks.removeAll(currentSession.getProjectedBlocks());
+		}
+		
+		fakeBlockQueue.removeFakeBlocks(player, removedBlocks);
 	}
 	
 	/**
@@ -444,4 +925,26 @@ public class ViewHandler {
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * The blocks displayed to a player after an update together with the changes to the blocks displayed before.
+	 */
+	private static class ProjectionUpdate {
+		
+		private final BlockTypeMap displayedBlocks;
+		private final BlockTypeMap addedBlocks;
+		private final BlockTypeMap removedBlocks;
+		private final FrustumSpans frustumSpans;
+		
+		ProjectionUpdate(BlockTypeMap displayedBlocks,
+		                 BlockTypeMap addedBlocks,
+		                 BlockTypeMap removedBlocks,
+		                 FrustumSpans frustumSpans) {
+			
+			this.displayedBlocks = displayedBlocks;
+			this.addedBlocks = addedBlocks;
+			this.removedBlocks = removedBlocks;
+			this.frustumSpans = frustumSpans;
+		}
+	}
+}
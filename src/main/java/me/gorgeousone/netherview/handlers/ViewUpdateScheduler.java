@@ -0,0 +1,177 @@
+package me.gorgeousone.netherview.handlers;
+
+import me.gorgeousone.netherview.ConfigSettings;
+import me.gorgeousone.netherview.message.MessageUtils;
+import me.gorgeousone.netherview.portal.Portal;
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Collects the movements of players and updates their portal views once per tick instead of on every move event.
+ * Players are updated in the order they moved first. If the time budget of a tick is used up,
+ * the remaining players are updated first in the next tick.
+ * Whether a player may see portal views is checked again when their update is due, because it might have changed since they were scheduled.
+ */
+public class ViewUpdateScheduler {
+	
+	private final JavaPlugin plugin;
+	private final ConfigSettings configSettings;
+	private final ViewHandler viewHandler;
+	
+	private final Map<UUID, Location> dirtyPlayers;
+	private final Map<UUID, Location> lastUpdateLocs;
+	private Predicate<Player> viewCondition;
+	private BukkitRunnable updateTimer;
+	
+	public ViewUpdateScheduler(JavaPlugin plugin,
+	                           ConfigSettings configSettings,
+	                           ViewHandler viewHandler) {
+		
+		this.plugin = plugin;
+		this.configSettings = configSettings;
+		this.viewHandler = viewHandler;
+		
+		dirtyPlayers = new LinkedHashMap<>();
+		lastUpdateLocs = new HashMap<>();
+		viewCondition = player -> true;
+		
+		startUpdateTimer();
+	}
+	
+	public void reload() {
+		
+		disable();
+		startUpdateTimer();
+	}
+	
+	public void disable() {
+		
+		updateTimer.cancel();
+		dirtyPlayers.clear();
+		lastUpdateLocs.clear();
+	}
+	
+	/**
+	 * Schedules an update of the player's portal view for the given eye location.
+	 * Nothing is scheduled if the player didn't move further than the configured minimum distance since the last update.
+	 */
+	public void markDirty(Player player, Location playerEyeLoc) {
+		
+		UUID playerId = player.getUniqueId();
+		Location lastUpdateLoc = lastUpdateLocs.get(playerId);
+		double minDistance = configSettings.getMinViewUpdateDistance();
+		
+		if (lastUpdateLoc != null &&
+		    lastUpdateLoc.getWorld() == playerEyeLoc.getWorld() &&
+		    lastUpdateLoc.distanceSquared(playerEyeLoc) < minDistance * minDistance) {
+			
+			dirtyPlayers.remove(playerId);
+			return;
+		}
+		
+		//the player keeps their place in the queue but the location is updated
+		dirtyPlayers.put(playerId, playerEyeLoc);
+	}
+	
+	/**
+	 * Schedules an update for all players in display range of the portal, no matter how far they moved.
+	 * Used when the projections of the portal finished loading, otherwise players standing still would not see them until they move.
+	 */
+	public void markViewersDirty(Portal portal) {
+		
+		for (Player player : Bukkit.getOnlinePlayers()) {
+			
+			if (viewHandler.getPortalInDisplayRange(player) != portal || !canViewPortals(player)) {
+				continue;
+			}
+			
+			UUID playerId = player.getUniqueId();
+			lastUpdateLocs.remove(playerId);
+			dirtyPlayers.put(playerId, player.getEyeLocation());
+		}
+	}
+	
+	/**
+	 * Removes all scheduled updates of the player.
+	 */
+	public void unregisterPlayer(Player player) {
+		
+		dirtyPlayers.remove(player.getUniqueId());
+		lastUpdateLocs.remove(player.getUniqueId());
+	}
+	
+	/**
+	 * Sets an additional condition players have to meet to have their view updated, like not just having been teleported by a custom portal.
+	 */
+	public void setViewCondition(Predicate<Player> viewCondition) {
+		this.viewCondition = viewCondition;
+	}
+	
+	/**
+	 * Returns true if the player is allowed and wants to see portal views at the moment. This includes the view permission.
+	 */
+	private boolean canViewPortals(Player player) {
+		
+		return player.getGameMode() != GameMode.SPECTATOR &&
+		       configSettings.canCreatePortalViews(player.getWorld()) &&
+		       viewHandler.hasPortalViewEnabled(player) &&
+		       viewCondition.test(player);
+	}
+	
+	private void startUpdateTimer() {
+		
+		MessageUtils.printDebug("Starting view update timer");
+		
+		updateTimer = new BukkitRunnable() {
+			@Override
+			public void run() {
+				updateDirtyPlayers();
+			}
+		};
+		
+		updateTimer.runTaskTimer(plugin, 0, 1);
+	}
+	
+	private void updateDirtyPlayers() {
+		
+		if (dirtyPlayers.isEmpty()) {
+			return;
+		}
+		
+		long budgetNanos = configSettings.getViewUpdateBudgetMillis() * 1_000_000L;
+		long start = System.nanoTime();
+		Iterator<Map.Entry<UUID, Location>> iterator = dirtyPlayers.entrySet().iterator();
+		
+		//at least one player is updated per tick so no one is stuck in the queue forever
+		while (iterator.hasNext()) {
+			
+			Map.Entry<UUID, Location> entry = iterator.next();
+			iterator.remove();
+			
+			Player player = Bukkit.getPlayer(entry.getKey());
+			Location playerEyeLoc = entry.getValue();
+			
+			//the player might have changed world or stopped viewing portals in the meantime
+			if (player != null && player.getWorld() == playerEyeLoc.getWorld() && canViewPortals(player)) {
+				
+				viewHandler.displayClosestPortalTo(player, playerEyeLoc);
+				lastUpdateLocs.put(entry.getKey(), playerEyeLoc);
+			}
+			
+			if (System.nanoTime() - start >= budgetNanos) {
+				break;
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -4,9 +4,11 @@ import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
 import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.NetworkMarker;
 import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.events.PacketPostAdapter;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.ChunkCoordIntPair;
 import com.comphenix.protocol.wrappers.EnumWrappers;
@@ -16,12 +18,14 @@ import me.gorgeousone.netherview.ConfigSettings;
 import me.gorgeousone.netherview.NetherViewPlugin;
 import me.gorgeousone.netherview.blockcache.BlockCache;
 import me.gorgeousone.netherview.blockcache.BlockCacheFactory;
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
 import me.gorgeousone.netherview.blockcache.ProjectionCache;
 import me.gorgeousone.netherview.customportal.CustomPortal;
 import me.gorgeousone.netherview.geometry.BlockVec;
 import me.gorgeousone.netherview.handlers.PlayerViewSession;
 import me.gorgeousone.netherview.handlers.PortalHandler;
 import me.gorgeousone.netherview.handlers.ViewHandler;
+import me.gorgeousone.netherview.packet.ChunkDataPatcher;
 import me.gorgeousone.netherview.packet.PacketHandler;
 import me.gorgeousone.netherview.portal.Portal;
 import me.gorgeousone.netherview.utils.VersionUtils;
@@ -51,7 +55,10 @@ import org.bukkit.event.world.StructureGrowEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -64,7 +71,9 @@ public class BlockChangeListener implements Listener {
 	private final PortalHandler portalHandler;
 	private final ViewHandler viewHandler;
 	private final PacketHandler packetHandler;
+	private final ChunkDataPatcher chunkDataPatcher;
 	private final Material portalMaterial;
+	private final boolean useBlockPacket1_16_2 = VersionUtils.serverIsAtOrAbove("1.16.2");
 	
 	public BlockChangeListener(NetherViewPlugin plugin,
 	                           ConfigSettings configSettings, PortalHandler portalHandler,
@@ -75,12 +84,14 @@ public class BlockChangeListener implements Listener {
 		this.portalHandler = portalHandler;
 		this.viewHandler = viewHandler;
 		this.packetHandler = packetHandler;
+		this.chunkDataPatcher = new ChunkDataPatcher(plugin);
 		this.portalMaterial = portalMaterial;
 		
 		ProtocolManager protocolManager = ProtocolLibrary.getProtocolManager();
 		addBlockUpdateInterception(protocolManager);
 		addMultiBlockUpdateInterception(protocolManager);
 		addBlockDigInterception(protocolManager);
+		addChunkDataInterception(protocolManager);
 	}
 	
 	/**
@@ -123,6 +134,61 @@ public class BlockChangeListener implements Listener {
 		});
 	}
 	
+	/**
+	 * Writes the projection blocks inside a chunk into the chunk data (re)sent to a player, because the chunk data overwrites them otherwise.
+	 * If the chunk data can't be patched on this server version, the blocks are sent again after the chunk.
+	 */
+	private void addChunkDataInterception(ProtocolManager protocolManager) {
+		
+		protocolManager.addPacketListener(
+				new PacketAdapter(plugin, ListenerPriority.HIGHEST, PacketType.Play.Server.MAP_CHUNK) {
+					
+					@Override
+					public void onPacketSending(PacketEvent event) {
+						
+						PacketContainer packet = event.getPacket();
+						Player player = event.getPlayer();
+						PlayerViewSession session = viewHandler.getViewSession(player);
+						
+						int chunkX = packet.getIntegers().read(0);
+						int chunkZ = packet.getIntegers().read(1);
+						
+						if (session == null || !session.isProjectionChunk(chunkX, chunkZ)) {
+							return;
+						}
+						
+						BlockTypeMap blocksInChunk = session.getProjectedBlocksInChunk(chunkX, chunkZ);
+						
+						if (blocksInChunk.isEmpty()) {
+							return;
+						}
+						
+						boolean hasSkyLight = player.getWorld().getEnvironment() == World.Environment.NORMAL;
+						PacketContainer patchedPacket = chunkDataPatcher.patchChunkData(packet, blocksInChunk, hasSkyLight);
+						
+						if (patchedPacket != null) {
+							event.setPacket(patchedPacket);
+							return;
+						}
+						
+						NetworkMarker networkMarker = event.getNetworkMarker();
+						
+						if (networkMarker == null) {
+							plugin.getServer().getScheduler().runTask(plugin, () -> viewHandler.resendProjectionBlocks(player, chunkX, chunkZ));
+							return;
+						}
+						
+						networkMarker.addPostListener(new PacketPostAdapter(plugin) {
+							@Override
+							public void onPostEvent(PacketEvent postEvent) {
+								viewHandler.resendProjectionBlocks(player, chunkX, chunkZ);
+							}
+						});
+					}
+				}
+		);
+	}
+	
 	private void addBlockUpdateInterception(ProtocolManager protocolManager) {
 		
 		protocolManager.addPacketListener(
@@ -134,11 +200,22 @@ public class BlockChangeListener implements Listener {
 						PacketContainer packet = event.getPacket();
 						Player player = event.getPlayer();
 						
-						if (packetHandler.isCustomPacket(packet) || !viewHandler.hasViewSession(player)) {
+						if (packetHandler.isCustomPacket(packet)) {
+							return;
+						}
+						
+						PlayerViewSession session = viewHandler.getViewSession(player);
+						
+						if (session == null) {
 							return;
 						}
 						
 						BlockPosition blockPos = packet.getBlockPositionModifier().read(0);
+						
+						if (!session.isProjectionSection(blockPos.getX() >> 4, blockPos.getY() >> 4, blockPos.getZ() >> 4)) {
+							return;
+						}
+						
 						BlockType projectedBlockType = getProjectedBlockType(player, new BlockVec(blockPos));
 						
 						if (projectedBlockType != null) {
@@ -164,16 +241,23 @@ public class BlockChangeListener implements Listener {
 						Player player = event.getPlayer();
 						
 						//call the custom packet check first so the packet handler will definitely flush the packet from the list
-						if (packetHandler.isCustomPacket(packet) || !viewHandler.hasViewSession(player)) {
+						if (packetHandler.isCustomPacket(packet)) {
 							return;
 						}
 						
 						PlayerViewSession session = viewHandler.getViewSession(player);
+						
+						if (session == null || !isProjectionChunk(packet, session)) {
+							return;
+						}
+						
 						Portal viewedPortal = session.getViewedPortal();
 						ProjectionCache viewedCache = session.getViewedPortalSide();
-						Map<BlockVec, BlockType> viewSession = session.getProjectedBlocks();
 						
-						if (VersionUtils.serverIsAtOrAbove("1.16.2")) {
+						//the projected blocks are replaced by the view workers, so the current map is read only once
+						BlockTypeMap viewSession = session.getProjectedBlocks();
+						
+						if (useBlockPacket1_16_2) {
 							rewriteProjectionBlockTypes1_16_2(packet, viewedPortal, viewedCache, viewSession);
 						} else {
 							rewriteProjectionBlockTypes(packet, viewedPortal, viewedCache, viewSession);
@@ -183,10 +267,25 @@ public class BlockChangeListener implements Listener {
 		);
 	}
 	
+	/**
+	 * Returns true if the chunk (section) of the multi block change packet contains any blocks of the viewed projection.
+	 */
+	private boolean isProjectionChunk(PacketContainer packet, PlayerViewSession session) {
+		
+		if (useBlockPacket1_16_2) {
+			
+			BlockPosition sectionPos = packet.getSectionPositions().read(0);
+			return session.isProjectionSection(sectionPos.getX(), sectionPos.getY(), sectionPos.getZ());
+		}
+		
+		ChunkCoordIntPair chunkLoc = packet.getChunkCoordIntPairs().read(0);
+		return session.isProjectionChunk(chunkLoc.getChunkX(), chunkLoc.getChunkZ());
+	}
+	
 	private void rewriteProjectionBlockTypes(PacketContainer packet,
 	                                         Portal viewedPortal,
 	                                         ProjectionCache viewedCache,
-	                                         Map<BlockVec, BlockType> viewSession) {
+	                                         BlockTypeMap viewSession) {
 		
 		ChunkCoordIntPair chunkLoc = packet.getChunkCoordIntPairs().read(0);
 		int chunkWorldX = chunkLoc.getChunkX() << 4;
@@ -214,7 +313,7 @@ public class BlockChangeListener implements Listener {
 	private void rewriteProjectionBlockTypes1_16_2(PacketContainer packet,
 	                                               Portal viewedPortal,
 	                                               ProjectionCache viewedCache,
-	                                               Map<BlockVec, BlockType> viewSession) {
+	                                               BlockTypeMap viewSession) {
 		
 		//it's somehow an Object array and not a WrappedBlockData array, don't ask me
 		Object[] blockTypes = packet.getBlockDataArrays().read(0);
@@ -243,7 +342,7 @@ public class BlockChangeListener implements Listener {
 	private BlockType getProjectedBlockType(BlockVec blockPos,
 	                                        Portal viewedPortal,
 	                                        ProjectionCache viewedCache,
-	                                        Map<BlockVec, BlockType> viewSession) {
+	                                        BlockTypeMap viewSession) {
 		
 		return (viewedPortal.getFrame().contains(blockPos) || viewedCache.contains(blockPos)) ? viewSession.get(blockPos) : null;
 	}
@@ -255,7 +354,7 @@ public class BlockChangeListener implements Listener {
 		if (session.getViewedPortal().getFrame().contains(blockPos) ||
 		    session.getViewedPortalSide().contains(blockPos)) {
 			
-			return viewHandler.getViewSession(player).getProjectedBlocks().get(blockPos);
+			return session.getProjectedBlocks().get(blockPos);
 		}
 		
 		return null;
@@ -279,7 +378,7 @@ public class BlockChangeListener implements Listener {
 		}
 	}
 	
-	private void updateBlockCaches(Block block, BlockType newBlockType, boolean blockWasOccluding) {
+	private void updateBlockCaches(Block block, BlockType newBlockType) {
 		
 		World blockWorld = block.getWorld();
 		
@@ -288,21 +387,66 @@ public class BlockChangeListener implements Listener {
 		}
 		
 		BlockVec blockPos = new BlockVec(block);
+		portalHandler.recordPendingBlockChanges(blockWorld, Collections.singletonMap(blockPos, newBlockType));
 		
 		for (BlockCache cache : portalHandler.getBlockCaches(blockWorld)) {
 			
-			if (!cache.contains(blockPos)) {
+			if (!cache.containsWithMargin(blockPos)) {
 				continue;
 			}
 			
-			Map<BlockVec, BlockType> updatedCopies = BlockCacheFactory.updateBlockInCache(cache, block, newBlockType, blockWasOccluding);
+			Map<BlockVec, BlockType> updatedCopies = BlockCacheFactory.updateBlockInCache(cache, block, newBlockType);
 			
 			if (!updatedCopies.isEmpty()) {
-				viewHandler.updateProjections(cache, updatedCopies);
+				viewHandler.queueProjectionUpdates(cache, updatedCopies);
 			}
 		}
 	}
 	
+	/**
+	 * Updates many changed blocks of one world in the block caches at once.
+	 */
+	private void updateBlockCaches(World world, Map<BlockVec, BlockType> newBlockTypes) {
+		
+		if (newBlockTypes.isEmpty() || !portalHandler.hasPortals(world)) {
+			return;
+		}
+		
+		portalHandler.recordPendingBlockChanges(world, newBlockTypes);
+		
+		for (BlockCache cache : portalHandler.getBlockCaches(world)) {
+			
+			Map<BlockVec, BlockType> blocksInCache = new HashMap<>();
+			
+			for (Map.Entry<BlockVec, BlockType> entry : newBlockTypes.entrySet()) {
+				if (cache.containsWithMargin(entry.getKey())) {
+					blocksInCache.put(entry.getKey(), entry.getValue());
+				}
+			}
+			
+			if (blocksInCache.isEmpty()) {
+				continue;
+			}
+			
+			Map<BlockVec, BlockType> updatedCopies = BlockCacheFactory.updateBlocksInCache(cache, blocksInCache);
+			
+			if (!updatedCopies.isEmpty()) {
+				viewHandler.queueProjectionUpdates(cache, updatedCopies);
+			}
+		}
+	}
+	
+	private void updateBlockCaches(World world, List<Block> blocks, BlockType newBlockType) {
+		
+		Map<BlockVec, BlockType> newBlockTypes = new HashMap<>();
+		
+		for (Block block : blocks) {
+			newBlockTypes.put(new BlockVec(block), newBlockType);
+		}
+		
+		updateBlockCaches(world, newBlockTypes);
+	}
+	
 	@EventHandler(priority = EventPriority.LOWEST)
 	public void onBlockInteract(PlayerInteractEvent event) {
 		
@@ -316,10 +460,10 @@ public class BlockChangeListener implements Listener {
 			return;
 		}
 		
-		Map<BlockVec, BlockType> viewSession = viewHandler.getViewSession(player).getProjectedBlocks();
+		PlayerViewSession session = viewHandler.getViewSession(player);
 		BlockVec blockPos = new BlockVec(event.getClickedBlock());
 		
-		if (viewSession.containsKey(blockPos)) {
+		if (session.getProjectedBlocks().containsKey(blockPos)) {
 			event.setCancelled(true);
 		}
 	}
@@ -330,7 +474,7 @@ public class BlockChangeListener implements Listener {
 		Block block = event.getBlock();
 		Material blockType = block.getType();
 		
-		updateBlockCaches(block, BlockType.of(Material.AIR), blockType.isOccluding());
+		updateBlockCaches(block, BlockType.of(Material.AIR));
 		
 		if (blockType == portalMaterial || blockType.isOccluding()) {
 			removeDamagedPortals(block);
@@ -341,15 +485,13 @@ public class BlockChangeListener implements Listener {
 	public void onBlockPlace(BlockPlaceEvent event) {
 		
 		Block block = event.getBlock();
-		updateBlockCaches(block, BlockType.of(block), false);
+		updateBlockCaches(block, BlockType.of(block));
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onBlockExplode(BlockExplodeEvent event) {
 		
-		for (Block block : event.blockList()) {
-			updateBlockCaches(block, BlockType.of(Material.AIR), block.getType().isOccluding());
-		}
+		updateBlockCaches(event.getBlock().getWorld(), event.blockList(), BlockType.of(Material.AIR));
 		
 		if (!configSettings.canCreatePortalViews(event.getBlock().getWorld())) {
 			return;
@@ -368,9 +510,7 @@ public class BlockChangeListener implements Listener {
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onEntityExplode(EntityExplodeEvent event) {
 		
-		for (Block block : event.blockList()) {
-			updateBlockCaches(block, BlockType.of(Material.AIR), block.getType().isOccluding());
-		}
+		updateBlockCaches(event.getEntity().getWorld(), event.blockList(), BlockType.of(Material.AIR));
 		
 		if (configSettings.canCreatePortalViews(event.getEntity().getWorld())) {
 			for (Block block : event.blockList()) {
@@ -386,20 +526,20 @@ public class BlockChangeListener implements Listener {
 	public void onBlockSpill(BlockFromToEvent event) {
 		
 		Block block = event.getToBlock();
-		updateBlockCaches(block, BlockType.of(event.getBlock()), false);
+		updateBlockCaches(block, BlockType.of(event.getBlock()));
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onBlockBurn(BlockBurnEvent event) {
 		
 		Block block = event.getBlock();
-		updateBlockCaches(block, BlockType.of(Material.AIR), block.getType().isOccluding());
+		updateBlockCaches(block, BlockType.of(Material.AIR));
 	}
 	
 	private void onAnyGrowEvent(BlockGrowEvent event) {
 		
 		Block block = event.getBlock();
-		updateBlockCaches(block, BlockType.of(event.getNewState()), block.getType().isOccluding());
+		updateBlockCaches(block, BlockType.of(event.getNewState()));
 	}
 	
 	//pumpkin/melon growing
@@ -425,7 +565,7 @@ public class BlockChangeListener implements Listener {
 	public void onBlockFade(BlockFadeEvent event) {
 		
 		Block block = event.getBlock();
-		updateBlockCaches(block, BlockType.of(event.getNewState()), block.getType().isOccluding());
+		updateBlockCaches(block, BlockType.of(event.getNewState()));
 	}
 	
 	//falling sand and maybe endermen (actually also sheep but that doesn't work)
@@ -434,14 +574,18 @@ public class BlockChangeListener implements Listener {
 		
 		//TODO check what 1.8 uses instead of event.getBlockData()
 		Block block = event.getBlock();
-		updateBlockCaches(block, BlockType.of(event.getBlock()), false);
+		updateBlockCaches(block, BlockType.of(event.getBlock()));
 	}
 	
 	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
 	public void onPlantGrow(StructureGrowEvent event) {
 		
+		Map<BlockVec, BlockType> newBlockTypes = new HashMap<>();
+		
 		for (BlockState state : event.getBlocks()) {
-			updateBlockCaches(state.getBlock(), BlockType.of(state), false);
+			newBlockTypes.put(new BlockVec(state.getBlock()), BlockType.of(state));
 		}
+		
+		updateBlockCaches(event.getWorld(), newBlockTypes);
 	}
 }
\ No newline at end of file
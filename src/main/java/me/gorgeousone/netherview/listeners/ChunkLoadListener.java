@@ -0,0 +1,50 @@
+package me.gorgeousone.netherview.listeners;
+
+import me.gorgeousone.netherview.blockcache.BlockCache;
+import me.gorgeousone.netherview.blockcache.BlockCacheFactory;
+import me.gorgeousone.netherview.blockcache.WorldBlockSource;
+import me.gorgeousone.netherview.geometry.BlockVec;
+import me.gorgeousone.netherview.handlers.PortalHandler;
+import me.gorgeousone.netherview.handlers.ViewHandler;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+
+import java.util.Map;
+
+/**
+ * Fills in the blocks of chunks that were not loaded when a block cache was created.
+ */
+public class ChunkLoadListener implements Listener {
+	
+	private final PortalHandler portalHandler;
+	private final ViewHandler viewHandler;
+	
+	public ChunkLoadListener(PortalHandler portalHandler, ViewHandler viewHandler) {
+		this.portalHandler = portalHandler;
+		this.viewHandler = viewHandler;
+	}
+	
+	@EventHandler
+	public void onChunkLoad(ChunkLoadEvent event) {
+		
+		Chunk chunk = event.getChunk();
+		World world = chunk.getWorld();
+		
+		for (BlockCache cache : portalHandler.getBlockCaches(world)) {
+			
+			if (!cache.hasMissingChunks()) {
+				continue;
+			}
+			
+			Map<BlockVec, BlockType> copiedBlocks = BlockCacheFactory.copyMissingChunk(cache, chunk.getX(), chunk.getZ(), new WorldBlockSource(world, false));
+			
+			if (!copiedBlocks.isEmpty()) {
+				viewHandler.queueProjectionUpdates(cache, copiedBlocks);
+			}
+		}
+	}
+}
@@ -6,6 +6,7 @@ import me.gorgeousone.netherview.blockcache.Transform;
 import me.gorgeousone.netherview.customportal.CustomPortal;
 import me.gorgeousone.netherview.customportal.CustomPortalHandler;
 import me.gorgeousone.netherview.handlers.ViewHandler;
+import me.gorgeousone.netherview.handlers.ViewUpdateScheduler;
 import me.gorgeousone.netherview.utils.TeleportUtils;
 import org.bukkit.GameMode;
 import org.bukkit.Location;
@@ -34,6 +35,7 @@ public class PlayerMoveListener implements Listener {
 	private final JavaPlugin plugin;
 	private final ConfigSettings configSettings;
 	private final ViewHandler viewHandler;
+	private final ViewUpdateScheduler viewUpdateScheduler;
 	private final CustomPortalHandler customPortalHandler;
 	private final Material portalMaterial;
 	
@@ -41,16 +43,19 @@ public class PlayerMoveListener implements Listener {
 	
 	public PlayerMoveListener(NetherViewPlugin plugin,
 	                          ConfigSettings configSettings, ViewHandler viewHandler,
+	                          ViewUpdateScheduler viewUpdateScheduler,
 	                          CustomPortalHandler customPortalHandler,
 	                          Material portalMaterial) {
 		
 		this.plugin = plugin;
 		this.configSettings = configSettings;
 		this.viewHandler = viewHandler;
+		this.viewUpdateScheduler = viewUpdateScheduler;
 		this.customPortalHandler = customPortalHandler;
 		this.portalMaterial = portalMaterial;
 		
 		teleportedPlayers = new HashSet<>();
+		viewUpdateScheduler.setViewCondition(player -> !teleportedPlayers.contains(player.getUniqueId()));
 	}
 	
 	@EventHandler
@@ -145,7 +150,7 @@ public class PlayerMoveListener implements Listener {
 		    player.hasPermission(NetherViewPlugin.VIEW_PERM)) {
 			
 			Vector playerMovement = fromVec.clone().subtract(toVec);
-			viewHandler.displayClosestPortalTo(player, player.getEyeLocation().add(playerMovement));
+			viewUpdateScheduler.markDirty(player, player.getEyeLocation().add(playerMovement));
 		}
 	}
 	
@@ -178,6 +183,7 @@ public class PlayerMoveListener implements Listener {
 		
 		if (event.getNewGameMode() == GameMode.SPECTATOR) {
 			viewHandler.hidePortalProjection(event.getPlayer());
+			viewUpdateScheduler.unregisterPlayer(event.getPlayer());
 		}
 	}
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package me.gorgeousone.netherview.listeners;
 
 import me.gorgeousone.netherview.customportal.PlayerSelectionHandler;
 import me.gorgeousone.netherview.handlers.ViewHandler;
+import me.gorgeousone.netherview.handlers.ViewUpdateScheduler;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -10,11 +11,14 @@ import org.bukkit.event.player.PlayerQuitEvent;
 public class PlayerQuitListener implements Listener {
 	
 	private final ViewHandler viewHandler;
+	private final ViewUpdateScheduler viewUpdateScheduler;
 	private final PlayerSelectionHandler selectionHandler;
 	
 	public PlayerQuitListener(ViewHandler viewHandler,
+	                          ViewUpdateScheduler viewUpdateScheduler,
 	                          PlayerSelectionHandler selectionHandler) {
 		this.viewHandler = viewHandler;
+		this.viewUpdateScheduler = viewUpdateScheduler;
 		this.selectionHandler = selectionHandler;
 	}
 	
@@ -23,6 +27,7 @@ public class PlayerQuitListener implements Listener {
 		
 		Player player = event.getPlayer();
 		viewHandler.unregisterPlayer(player);
+		viewUpdateScheduler.unregisterPlayer(player);
 		selectionHandler.removeSelection(player);
 	}
 }
\ No newline at end of file
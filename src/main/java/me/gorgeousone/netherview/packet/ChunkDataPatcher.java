@@ -0,0 +1,378 @@
+package me.gorgeousone.netherview.packet;
+
+import com.comphenix.protocol.events.PacketContainer;
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
+import me.gorgeousone.netherview.utils.NmsUtils;
+import me.gorgeousone.netherview.utils.VersionUtils;
+import me.gorgeousone.netherview.wrapper.blocktype.BlockType;
+import org.bukkit.Material;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Writes fake blocks into the block sections of chunk data packets, so chunks (re)sent to a player already contain the projection
+ * and no block change packets have to follow them.
+ * Only the section format of 1.13 to 1.15 is supported (longs of the block data can span entries), on other versions no packets are patched.
+ */
+public class ChunkDataPatcher {
+	
+	private static final int SECTION_COUNT = 16;
+	private static final int SECTION_VOLUME = 4096;
+	private static final int LIGHT_ARRAY_BYTES = 2048;
+	private static final int BIOME_BYTES = 256 * 4;
+	
+	private static final int MIN_PALETTE_BITS = 4;
+	private static final int MAX_PALETTE_BITS = 8;
+	//bits per block of sections without a palette that use the global block state ids
+	private static final int GLOBAL_PALETTE_BITS = 14;
+	
+	private final JavaPlugin plugin;
+	
+	private final boolean hasLightInSections = !VersionUtils.serverIsAtOrAbove("1.14");
+	private final boolean hasBlockCount = VersionUtils.serverIsAtOrAbove("1.14");
+	private final boolean hasBiomesInData = !VersionUtils.serverIsAtOrAbove("1.15");
+	
+	private Method getCombinedId;
+	private final Map<Object, Integer> blockStateIds;
+	private final Set<Integer> airIds;
+	private int airId;
+	
+	private volatile boolean isEnabled;
+	
+	public ChunkDataPatcher(JavaPlugin plugin) {
+		
+		this.plugin = plugin;
+		blockStateIds = new ConcurrentHashMap<>();
+		airIds = new HashSet<>();
+		
+		if (!VersionUtils.serverIsAtOrAbove("1.13") || VersionUtils.serverIsAtOrAbove("1.16")) {
+			return;
+		}
+		
+		try {
+			getCombinedId = NmsUtils.getNmsClass("Block").getMethod("getCombinedId", NmsUtils.getNmsClass("IBlockData"));
+			airId = getBlockStateId(BlockType.of(Material.AIR));
+			
+			for (Material airMaterial : Arrays.asList(Material.AIR, Material.CAVE_AIR, Material.VOID_AIR)) {
+				airIds.add(getBlockStateId(BlockType.of(airMaterial)));
+			}
+			
+			isEnabled = true;
+		
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			plugin.getLogger().log(Level.WARNING, "Could not access block state ids. Chunks will not be patched with projections.", e);
+		}
+	}
+	
+	/**
+	 * Returns a copy of the chunk data packet with the blocks written into its sections,
+	 * or null if the packet could not be patched and the blocks have to be sent separately. Can be called from any thread.
+	 *
+	 * @param blocksInChunk fake blocks located inside the packet's chunk
+	 * @param hasSkyLight   whether the world of the chunk has sky light, which is included in the sections before 1.14
+	 */
+	public PacketContainer patchChunkData(PacketContainer packet, BlockTypeMap blocksInChunk, boolean hasSkyLight) {
+		
+		if (!isEnabled) {
+			return null;
+		}
+		
+		try {
+			int sectionMask = packet.getIntegers().read(2);
+			boolean isFullChunk = packet.getBooleans().read(0);
+			byte[] data = packet.getByteArrays().read(0);
+			
+			Map<Integer, Map<Integer, Integer>> sectionPatches = getSectionPatches(blocksInChunk);
+			ByteBuffer in = ByteBuffer.wrap(data);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + SECTION_VOLUME);
+			DataOutputStream out = new DataOutputStream(bytes);
+			
+			int lightBytes = hasLightInSections ? LIGHT_ARRAY_BYTES * (hasSkyLight ? 2 : 1) : 0;
+			int patchedMask = sectionMask;
+			
+			for (int sectionY = 0; sectionY < SECTION_COUNT; sectionY++) {
+				
+				Map<Integer, Integer> patches = sectionPatches.get(sectionY);
+				
+				if ((sectionMask >> sectionY & 1) == 0) {
+					
+					//sections missing in a full chunk are empty, in other chunks they are just not updated
+					if (patches != null && isFullChunk) {
+						
+						int[] blockIds = new int[SECTION_VOLUME];
+						Arrays.fill(blockIds, airId);
+						patches.forEach((index, blockId) -> blockIds[index] = blockId);
+						
+						writeBlockIds(out, blockIds);
+						writeEmptyLight(out, hasSkyLight);
+						patchedMask |= 1 << sectionY;
+					}
+					continue;
+				}
+				
+				int sectionStart = in.position();
+				int[] blockIds = readBlockIds(in);
+				int lightStart = in.position();
+				in.position(lightStart + lightBytes);
+				
+				if (patches == null) {
+					out.write(data, sectionStart, in.position() - sectionStart);
+					continue;
+				}
+				
+				patches.forEach((index, blockId) -> blockIds[index] = blockId);
+				writeBlockIds(out, blockIds);
+				out.write(data, lightStart, lightBytes);
+			}
+			
+			//anything else than the biomes means the sections were not read correctly, e.g. because the chunk is from another world
+			if (in.remaining() != (hasBiomesInData && isFullChunk ? BIOME_BYTES : 0)) {
+				return null;
+			}
+			
+			out.write(data, in.position(), in.remaining());
+			
+			PacketContainer patchedPacket = packet.shallowClone();
+			patchedPacket.getIntegers().write(2, patchedMask);
+			patchedPacket.getByteArrays().write(0, bytes.toByteArray());
+			return patchedPacket;
+		
+		} catch (BufferUnderflowException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		
+		} catch (IOException | ReflectiveOperationException | RuntimeException e) {
+			
+			plugin.getLogger().log(Level.WARNING, "Failed to patch chunk data. Projections in chunks will be sent separately.", e);
+			isEnabled = false;
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the block state ids of the blocks sorted by the section they are in, mapped to their index inside the section.
+	 */
+	private Map<Integer, Map<Integer, Integer>> getSectionPatches(BlockTypeMap blocks) throws ReflectiveOperationException {
+		
+		Map<Integer, Map<Integer, Integer>> sectionPatches = new HashMap<>();
+		
+		//forEach() can't throw checked exceptions
+		long[] blockKeys = new long[blocks.size()];
+		BlockType[] blockTypes = new BlockType[blocks.size()];
+		int[] i = {0};
+		
+		blocks.forEach((blockKey, blockType) -> {
+			blockKeys[i[0]] = blockKey;
+			blockTypes[i[0]] = blockType;
+			++i[0];
+		});
+		
+		for (int k = 0; k < blockKeys.length; k++) {
+			
+			int x = BlockTypeMap.getX(blockKeys[k]);
+			int y = BlockTypeMap.getY(blockKeys[k]);
+			int z = BlockTypeMap.getZ(blockKeys[k]);
+			
+			if (y < 0 || y >= SECTION_COUNT * 16) {
+				continue;
+			}
+			
+			int index = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+			sectionPatches.computeIfAbsent(y >> 4, sectionY -> new HashMap<>()).put(index, getBlockStateId(blockTypes[k]));
+		}
+		
+		return sectionPatches;
+	}
+	
+	private int getBlockStateId(BlockType blockType) throws ReflectiveOperationException {
+		
+		Object blockData = blockType.getWrapped().getHandle();
+		Integer blockStateId = blockStateIds.get(blockData);
+		
+		if (blockStateId == null) {
+			blockStateId = (Integer) getCombinedId.invoke(null, blockData);
+			blockStateIds.put(blockData, blockStateId);
+		}
+		
+		return blockStateId;
+	}
+	
+	/**
+	 * Reads the blocks of a section and returns their global block state ids.
+	 */
+	private int[] readBlockIds(ByteBuffer in) {
+		
+		if (hasBlockCount) {
+			in.getShort();
+		}
+		
+		int bitsPerBlock = in.get() & 0xFF;
+		int[] palette = null;
+		
+		if (bitsPerBlock <= MAX_PALETTE_BITS) {
+			
+			palette = new int[readVarInt(in)];
+			
+			for (int i = 0; i < palette.length; i++) {
+				palette[i] = readVarInt(in);
+			}
+		}
+		
+		long[] packedIds = new long[readVarInt(in)];
+		
+		for (int i = 0; i < packedIds.length; i++) {
+			packedIds[i] = in.getLong();
+		}
+		
+		int[] blockIds = new int[SECTION_VOLUME];
+		
+		for (int i = 0; i < SECTION_VOLUME; i++) {
+			
+			int value = getPacked(packedIds, i, bitsPerBlock);
+			blockIds[i] = palette == null ? value : palette[value];
+		}
+		
+		return blockIds;
+	}
+	
+	/**
+	 * Writes the blocks of a section with a new palette, or without one if there are too many different blocks.
+	 */
+	private void writeBlockIds(DataOutputStream out, int[] blockIds) throws IOException {
+		
+		Map<Integer, Integer> paletteIndices = new LinkedHashMap<>();
+		int blockCount = 0;
+		
+		for (int blockId : blockIds) {
+			
+			paletteIndices.putIfAbsent(blockId, paletteIndices.size());
+			
+			if (!airIds.contains(blockId)) {
+				++blockCount;
+			}
+		}
+		
+		int bitsPerBlock = Math.max(MIN_PALETTE_BITS, 32 - Integer.numberOfLeadingZeros(paletteIndices.size() - 1));
+		boolean usesPalette = bitsPerBlock <= MAX_PALETTE_BITS;
+		
+		if (!usesPalette) {
+			bitsPerBlock = GLOBAL_PALETTE_BITS;
+		}
+		
+		if (hasBlockCount) {
+			out.writeShort(blockCount);
+		}
+		
+		out.writeByte(bitsPerBlock);
+		
+		if (usesPalette) {
+			
+			writeVarInt(out, paletteIndices.size());
+			
+			for (int blockId : paletteIndices.keySet()) {
+				writeVarInt(out, blockId);
+			}
+		}
+		
+		long[] packedIds = new long[SECTION_VOLUME * bitsPerBlock / 64];
+		
+		for (int i = 0; i < SECTION_VOLUME; i++) {
+			setPacked(packedIds, i, bitsPerBlock, usesPalette ? paletteIndices.get(blockIds[i]) : blockIds[i]);
+		}
+		
+		writeVarInt(out, packedIds.length);
+		
+		for (long packed : packedIds) {
+			out.writeLong(packed);
+		}
+	}
+	
+	/**
+	 * Writes the light of an empty section, dark for block light and full daylight for sky light.
+	 */
+	private void writeEmptyLight(DataOutputStream out, boolean hasSkyLight) throws IOException {
+		
+		if (!hasLightInSections) {
+			return;
+		}
+		
+		out.write(new byte[LIGHT_ARRAY_BYTES]);
+		
+		if (hasSkyLight) {
+			
+			byte[] skyLight = new byte[LIGHT_ARRAY_BYTES];
+			Arrays.fill(skyLight, (byte) 0xFF);
+			out.write(skyLight);
+		}
+	}
+	
+	private int getPacked(long[] packedIds, int index, int bits) {
+		
+		int bitIndex = index * bits;
+		int longIndex = bitIndex >> 6;
+		int offset = bitIndex & 63;
+		long value = packedIds[longIndex] >>> offset;
+		
+		//values can continue in the next long
+		if (offset + bits > 64) {
+			value |= packedIds[longIndex + 1] << (64 - offset);
+		}
+		
+		return (int) (value & (1L << bits) - 1);
+	}
+	
+	private void setPacked(long[] packedIds, int index, int bits, int value) {
+		
+		int bitIndex = index * bits;
+		int longIndex = bitIndex >> 6;
+		int offset = bitIndex & 63;
+		
+		packedIds[longIndex] |= (long) value << offset;
+		
+		if (offset + bits > 64) {
+			packedIds[longIndex + 1] |= (long) value >>> (64 - offset);
+		}
+	}
+	
+	private int readVarInt(ByteBuffer in) {
+		
+		int value = 0;
+		int shift = 0;
+		byte read;
+		
+		do {
+			if (shift >= 35) {
+				throw new IllegalArgumentException("VarInt is too long");
+			}
+			
+			read = in.get();
+			value |= (read & 0x7F) << shift;
+			shift += 7;
+		} while ((read & 0x80) != 0);
+		
+		return value;
+	}
+	
+	private void writeVarInt(DataOutputStream out, int value) throws IOException {
+		
+		while ((value & ~0x7F) != 0) {
+			out.writeByte(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		
+		out.writeByte(value);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,140 @@
+package me.gorgeousone.netherview.packet;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe set of packet handles compared by identity that only holds weak references to them.
+ * A packet sent to multiple players is marked once per player. Marks are removed when they are checked,
+ * and packets that are never checked (e.g. because they were cancelled) are dropped from the set once they are garbage collected,
+ * so the set does not grow over time.
+ */
+public class CustomPacketMarker {
+	
+	private final Map<IdentityReference, Integer> markedHandles;
+	private final ReferenceQueue<Object> collectedHandles;
+	
+	private final AtomicLong markedCount;
+	private final AtomicLong consumedCount;
+	
+	public CustomPacketMarker() {
+		
+		markedHandles = new ConcurrentHashMap<>();
+		collectedHandles = new ReferenceQueue<>();
+		markedCount = new AtomicLong();
+		consumedCount = new AtomicLong();
+	}
+	
+	public void mark(Object packetHandle) {
+		
+		removeCollectedHandles();
+		markedHandles.merge(new IdentityReference(packetHandle, collectedHandles), 1, Integer::sum);
+		markedCount.incrementAndGet();
+	}
+	
+	/**
+	 * Removes the mark of a packet that could not be sent.
+	 */
+	public void unmark(Object packetHandle) {
+		
+		if (removeMark(packetHandle)) {
+			markedCount.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns true if the packet was marked and removes one mark, so this only works once per time the packet was marked.
+	 */
+	public boolean consume(Object packetHandle) {
+		
+		if (markedHandles.isEmpty() || !removeMark(packetHandle)) {
+			return false;
+		}
+		
+		consumedCount.incrementAndGet();
+		return true;
+	}
+	
+	private boolean removeMark(Object packetHandle) {
+		
+		boolean[] wasMarked = {false};
+		
+		markedHandles.computeIfPresent(new IdentityReference(packetHandle, null), (reference, markCount) -> {
+			
+			wasMarked[0] = true;
+			return markCount > 1 ? markCount - 1 : null;
+		});
+		
+		return wasMarked[0];
+	}
+	
+	/**
+	 * Returns the count of packets marked in total.
+	 */
+	public long getMarkedCount() {
+		return markedCount.get();
+	}
+	
+	/**
+	 * Returns the count of marked packets that were recognized again in total.
+	 */
+	public long getConsumedCount() {
+		return consumedCount.get();
+	}
+	
+	/**
+	 * Returns the count of marks currently stored.
+	 */
+	public int size() {
+		
+		removeCollectedHandles();
+		return markedHandles.size();
+	}
+	
+	private void removeCollectedHandles() {
+		
+		Reference<?> reference;
+		
+		while ((reference = collectedHandles.poll()) != null) {
+			markedHandles.remove(reference);
+		}
+	}
+	
+	/**
+	 * A weak reference that is equal to other references to the same object. Once the object is collected it is only equal to itself.
+	 */
+	private static class IdentityReference extends WeakReference<Object> {
+		
+		private final int hashCode;
+		
+		IdentityReference(Object referent, ReferenceQueue<Object> queue) {
+			
+			super(referent, queue);
+			hashCode = System.identityHashCode(referent);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			
+			if (this == o) {
+				return true;
+			}
+			
+			if (!(o instanceof IdentityReference)) {
+				return false;
+			}
+			
+			Object referent = get();
+			return referent != null && referent == ((IdentityReference) o).get();
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
\ No newline at end of file
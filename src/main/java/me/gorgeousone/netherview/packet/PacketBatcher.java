@@ -0,0 +1,262 @@
+package me.gorgeousone.netherview.packet;
+
+import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.utility.MinecraftFields;
+import me.gorgeousone.netherview.ConfigSettings;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Writes packets to the connections of players without flushing them, so all packets sent for one update
+ * (like the multi block changes of a projection or the packets spawning an entity) are flushed together with one system call.
+ * Sending packets with ProtocolLib flushes the connection after each of them.
+ * If the connection of a player cannot be accessed, the packets are sent with ProtocolLib as usual.
+ */
+public class PacketBatcher {
+	
+	private final JavaPlugin plugin;
+	private final ConfigSettings configSettings;
+	private final ProtocolManager protocolManager;
+	
+	private final Map<Player, PlayerChannel> playerChannels;
+	private final Set<PlayerChannel> unflushedChannels;
+	
+	private volatile boolean isBatchingEnabled;
+	
+	public PacketBatcher(JavaPlugin plugin,
+	                     ConfigSettings configSettings,
+	                     ProtocolManager protocolManager) {
+		
+		this.plugin = plugin;
+		this.configSettings = configSettings;
+		this.protocolManager = protocolManager;
+		
+		playerChannels = Collections.synchronizedMap(new WeakHashMap<>());
+		unflushedChannels = ConcurrentHashMap.newKeySet();
+		isBatchingEnabled = configSettings.isPacketBatchingEnabled();
+	}
+	
+	public void reload() {
+		
+		disable();
+		isBatchingEnabled = configSettings.isPacketBatchingEnabled();
+	}
+	
+	public void disable() {
+		
+		for (PlayerChannel channel : unflushedChannels) {
+			flush(channel);
+		}
+		
+		playerChannels.clear();
+	}
+	
+	/**
+	 * Writes the packet to the player's connection without flushing it. Can be called from any thread,
+	 * but {@link #flush(Player)} has to be called after the last packet of the update.
+	 */
+	public void writePacket(Player player, PacketContainer packet) throws InvocationTargetException {
+		
+		PlayerChannel channel = isBatchingEnabled ? getChannel(player) : null;
+		
+		if (channel == null) {
+			protocolManager.sendServerPacket(player, packet);
+			return;
+		}
+		
+		try {
+			channel.write(packet.getHandle());
+			unflushedChannels.add(channel);
+		
+		} catch (IllegalAccessException e) {
+			protocolManager.sendServerPacket(player, packet);
+		}
+	}
+	
+	/**
+	 * Flushes all packets written to the player's connection.
+	 */
+	public void flush(Player player) {
+		
+		PlayerChannel channel = playerChannels.get(player);
+		
+		if (channel != null) {
+			flush(channel);
+		}
+	}
+	
+	private void flush(PlayerChannel channel) {
+		
+		if (!unflushedChannels.remove(channel)) {
+			return;
+		}
+		
+		try {
+			channel.flush();
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			plugin.getLogger().log(Level.WARNING, "Failed to flush network channel", e);
+		}
+	}
+	
+	private PlayerChannel getChannel(Player player) {
+		
+		try {
+			synchronized (playerChannels) {
+				
+				PlayerChannel channel = playerChannels.get(player);
+				
+				if (channel == null) {
+					channel = PlayerChannel.of(player, plugin);
+					playerChannels.put(player, channel);
+				}
+				
+				return channel;
+			}
+		
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			
+			plugin.getLogger().log(Level.WARNING, "Could not access the network channel of players. Packets will be sent without batching.", e);
+			isBatchingEnabled = false;
+			return null;
+		}
+	}
+	
+	/**
+	 * The connection of a player accessed with reflection because its classes are only available on the server.
+	 * If the server's network manager can send packets without flushing, that method is used, so its checks and queueing still apply.
+	 * Otherwise the packets are written to the netty channel directly and failed writes are logged with a listener on the returned future.
+	 */
+	private static class PlayerChannel {
+		
+		private final Object networkManager;
+		private final Method sendWithoutFlush;
+		
+		private final Object channel;
+		private final Method write;
+		private final Method flush;
+		
+		private final Method addListener;
+		private final Object failureLogger;
+		
+		private PlayerChannel(Object networkManager,
+		                      Method sendWithoutFlush,
+		                      Object channel,
+		                      Method write,
+		                      Method flush,
+		                      Method addListener,
+		                      Object failureLogger) {
+			
+			this.networkManager = networkManager;
+			this.sendWithoutFlush = sendWithoutFlush;
+			this.channel = channel;
+			this.write = write;
+			this.flush = flush;
+			this.addListener = addListener;
+			this.failureLogger = failureLogger;
+		}
+		
+		void write(Object packetHandle) throws IllegalAccessException, InvocationTargetException {
+			
+			if (sendWithoutFlush != null) {
+				sendWithoutFlush.invoke(networkManager, packetHandle, null, false);
+				return;
+			}
+			
+			Object future = write.invoke(channel, packetHandle);
+			addListener.invoke(future, failureLogger);
+		}
+		
+		void flush() throws IllegalAccessException, InvocationTargetException {
+			flush.invoke(channel);
+		}
+		
+		static PlayerChannel of(Player player, JavaPlugin plugin) throws ReflectiveOperationException {
+			
+			Object networkManager = MinecraftFields.getNetworkManager(player);
+			Field channelField = findChannelField(networkManager.getClass());
+			Class<?> channelType = channelField.getType();
+			Object channel = channelField.get(networkManager);
+			
+			Method write = channelType.getMethod("write", Object.class);
+			Class<?> futureType = write.getReturnType();
+			Class<?> listenerType = futureType.getClassLoader().loadClass("io.netty.util.concurrent.GenericFutureListener");
+			Method addListener = futureType.getMethod("addListener", listenerType);
+			
+			Method isSuccess = futureType.getMethod("isSuccess");
+			Method cause = futureType.getMethod("cause");
+			
+			Object failureLogger = Proxy.newProxyInstance(listenerType.getClassLoader(), new Class<?>[]{listenerType}, (proxy, method, args) -> {
+				
+				if (!method.getName().equals("operationComplete")) {
+					return method.getDeclaringClass() == Object.class ? method.invoke(proxy, args) : null;
+				}
+				
+				Throwable failure = (Boolean) isSuccess.invoke(args[0]) ? null : (Throwable) cause.invoke(args[0]);
+				
+				//writes to connections of players who left are expected to fail
+				if (failure != null && !(failure instanceof ClosedChannelException)) {
+					plugin.getLogger().log(Level.WARNING, "Failed to send packet to " + player.getName(), failure);
+				}
+				
+				return null;
+			});
+			
+			return new PlayerChannel(
+					networkManager,
+					findSendWithoutFlush(networkManager.getClass()),
+					channel,
+					write,
+					channelType.getMethod("flush"),
+					addListener,
+					failureLogger);
+		}
+		
+		private static Field findChannelField(Class<?> networkManagerType) throws NoSuchFieldException {
+			
+			for (Class<?> type = networkManagerType; type != null; type = type.getSuperclass()) {
+				for (Field field : type.getDeclaredFields()) {
+					
+					if (field.getType().getName().endsWith("io.netty.channel.Channel")) {
+						field.setAccessible(true);
+						return field;
+					}
+				}
+			}
+			
+			throw new NoSuchFieldException("No netty channel found in " + networkManagerType.getName());
+		}
+		
+		/**
+		 * Returns the method of newer servers to send a packet with a listener and a flag whether to flush, or null if there is none.
+		 */
+		private static Method findSendWithoutFlush(Class<?> networkManagerType) {
+			
+			for (Method method : networkManagerType.getMethods()) {
+				
+				Class<?>[] params = method.getParameterTypes();
+				
+				if (params.length == 3 &&
+				    params[0].getSimpleName().equals("Packet") &&
+				    !params[1].isPrimitive() &&
+				    params[2] == boolean.class) {
+					return method;
+				}
+			}
+			
+			return null;
+		}
+	}
+}
\ No newline at end of file
@@ -11,8 +11,9 @@ import com.comphenix.protocol.wrappers.EnumWrappers;
 import com.comphenix.protocol.wrappers.MultiBlockChangeInfo;
 import com.comphenix.protocol.wrappers.Pair;
 import com.comphenix.protocol.wrappers.WrappedBlockData;
+import me.gorgeousone.netherview.ConfigSettings;
+import me.gorgeousone.netherview.blockcache.BlockTypeMap;
 import me.gorgeousone.netherview.blockcache.Transform;
-import me.gorgeousone.netherview.geometry.BlockVec;
 import me.gorgeousone.netherview.portal.ProjectionEntity;
 import me.gorgeousone.netherview.utils.FacingUtils;
 import me.gorgeousone.netherview.utils.NmsUtils;
@@ -31,14 +32,14 @@ import org.bukkit.entity.Painting;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.EntityEquipment;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.Vector;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -56,7 +57,8 @@ public class PacketHandler {
 	
 	private final ItemStack pumpkin = new ItemStack(VersionUtils.IS_LEGACY_SERVER ? Material.valueOf("PUMPKIN") : Material.valueOf("CARVED_PUMPKIN"));
 	private final ProtocolManager protocolManager;
-	private final Set<Integer> markedPacketIds;
+	private final PacketBatcher packetBatcher;
+	private final CustomPacketMarker customPacketMarker;
 	
 	private PacketConstructor entityMetadataPacket;
 	private PacketConstructor entityHeadRotationPacket;
@@ -65,10 +67,11 @@ public class PacketHandler {
 	private PacketConstructor spawnEntityLivingPacket;
 	private PacketConstructor spawnEntityPaintingPacket;
 	
-	public PacketHandler() {
+	public PacketHandler(JavaPlugin plugin, ConfigSettings configSettings) {
 		
 		protocolManager = ProtocolLibrary.getProtocolManager();
-		markedPacketIds = new HashSet<>();
+		packetBatcher = new PacketBatcher(plugin, configSettings, protocolManager);
+		customPacketMarker = new CustomPacketMarker();
 		
 		try {
 			createPacketsConstructors();
@@ -77,6 +80,14 @@ public class PacketHandler {
 		}
 	}
 	
+	public void reload() {
+		packetBatcher.reload();
+	}
+	
+	public void disable() {
+		packetBatcher.disable();
+	}
+	
 	private void createPacketsConstructors() throws ClassNotFoundException {
 		
 		entityHeadRotationPacket = protocolManager.createPacketConstructor(PacketType.Play.Server.ENTITY_HEAD_ROTATION, NmsUtils.getNmsClass("Entity"), byte.class);
@@ -93,46 +104,58 @@ public class PacketHandler {
 	}
 	
 	/**
-	 * Sends the packet and adds it's system ID to a set of custom packets sent from this class.
-	 * Packet listener of this project can check (only once) if the packets they receive are custom packets which should not be altered.
+	 * Writes the packet and marks it as custom packet sent from this class. The player's connection has to be flushed after the last packet.
+	 * Packet listener of this project can check (once per time the packet was sent) if the packets they receive are custom packets which should not be altered.
 	 */
-	private void sendCustomPacket(Player player, PacketContainer packet) {
+	private void writeCustomPacket(Player player, PacketContainer packet) {
 		
-		int packetId = System.identityHashCode(packet.getHandle());
+		Object packetHandle = packet.getHandle();
 		
 		try {
 			
-			markedPacketIds.add(packetId);
-			protocolManager.sendServerPacket(player, packet);
+			customPacketMarker.mark(packetHandle);
+			packetBatcher.writePacket(player, packet);
 			
 		} catch (InvocationTargetException e) {
 			
-			markedPacketIds.remove(packetId);
+			customPacketMarker.unmark(packetHandle);
 			throw new RuntimeException("Failed to send packet " + packet, e);
 		}
 	}
 	
-	private void sendPacket(Player player, PacketContainer packet) {
+	private void writePacket(Player player, PacketContainer packet) {
 		
 		if (packet == null) {
 			return;
 		}
 		
 		try {
-			protocolManager.sendServerPacket(player, packet);
+			packetBatcher.writePacket(player, packet);
 		} catch (InvocationTargetException e) {
 			throw new RuntimeException("Failed to send packet " + packet, e);
 		}
 	}
 	
 	/**
-	 * Returns true if the packets system ID matches any custom packet sent by this project for viewing a portal.
+	 * Returns true if the packet is a custom packet sent by this project for viewing a portal.
 	 * The method will delete matching packets from the custom packet set, so this method only works once!
 	 */
 	public boolean isCustomPacket(PacketContainer packet) {
-		
-		int packetId = System.identityHashCode(packet.getHandle());
-		return markedPacketIds.contains(packetId);
+		return customPacketMarker.consume(packet.getHandle());
+	}
+	
+	/**
+	 * Returns the count of custom packets sent in total.
+	 */
+	public long getMarkedPacketCount() {
+		return customPacketMarker.getMarkedCount();
+	}
+	
+	/**
+	 * Returns the count of custom packets that were recognized by the packet listeners in total.
+	 */
+	public long getConsumedPacketCount() {
+		return customPacketMarker.getConsumedCount();
 	}
 	
 	public void refreshFakeBlock(Player player, BlockPosition blockPos, BlockType projectedBlockType) {
@@ -142,94 +165,137 @@ public class PacketHandler {
 		fakeBlockPacket.getBlockPositionModifier().write(0, blockPos);
 		fakeBlockPacket.getBlockData().write(0, projectedBlockType.getWrapped());
 		
-		sendCustomPacket(player, fakeBlockPacket);
+		writeCustomPacket(player, fakeBlockPacket);
+		packetBatcher.flush(player);
 	}
 	
-	public void removeFakeBlocks(Player player, Map<BlockVec, BlockType> blockCopies) {
+	public void removeFakeBlocks(Player player, BlockTypeMap blockCopies) {
 		
 		World playerWorld = player.getWorld();
-		Map<BlockVec, BlockType> updatedBlockCopies = new HashMap<>();
+		BlockTypeMap updatedBlockCopies = new BlockTypeMap(blockCopies.size());
 		
-		for (BlockVec blockPos : blockCopies.keySet())
-			updatedBlockCopies.put(blockPos.clone(), BlockType.of(blockPos.toBlock(playerWorld)));
+		blockCopies.forEach((blockKey, blockType) -> updatedBlockCopies.put(blockKey, BlockType.of(playerWorld.getBlockAt(
+				BlockTypeMap.getX(blockKey),
+				BlockTypeMap.getY(blockKey),
+				BlockTypeMap.getZ(blockKey)))));
 		
 		displayFakeBlocks(player, updatedBlockCopies);
 	}
 	
-	public void displayFakeBlocks(Player player, Map<BlockVec, BlockType> blockCopies) {
+	public void displayFakeBlocks(Player player, BlockTypeMap blockCopies) {
+		displayFakeBlocks(Collections.singletonList(player), blockCopies);
+	}
+	
+	/**
+	 * Sends the same fake blocks to all the players (in the same world). The packets are only created once for all of them.
+	 */
+	public void displayFakeBlocks(List<Player> players, BlockTypeMap blockCopies) {
 		
-		if (useBlockPacket1_16_2) {
-			sendMultipleFakeBlocks1_16_2(player, blockCopies);
-		} else {
-			sendMultipleFakeBlocks(player, blockCopies);
+		if (blockCopies.isEmpty() || players.isEmpty()) {
+			return;
+		}
+		
+		List<PacketContainer> fakeBlocksPackets = useBlockPacket1_16_2 ?
+				createMultipleFakeBlocks1_16_2(blockCopies) :
+				createMultipleFakeBlocks(blockCopies, players.get(0).getWorld());
+		
+		for (PacketContainer fakeBlocksPacket : fakeBlocksPackets) {
+			for (Player player : players) {
+				writeCustomPacket(player, fakeBlocksPacket);
+			}
+		}
+		
+		for (Player player : players) {
+			packetBatcher.flush(player);
 		}
 	}
 	
-	private void sendMultipleFakeBlocks(Player player, Map<BlockVec, BlockType> blockCopies) {
+	private List<PacketContainer> createMultipleFakeBlocks(BlockTypeMap blockCopies, World world) {
 		
-		Map<BlockVec, Map<BlockVec, BlockType>> sortedBlockTypes = getSortedByChunks(blockCopies);
+		Map<Long, BlockTypeMap> sortedBlockTypes = getSortedByChunks(blockCopies);
+		List<PacketContainer> fakeBlocksPackets = new ArrayList<>(sortedBlockTypes.size());
 		
-		for (Map.Entry<BlockVec, Map<BlockVec, BlockType>> chunkEntry : sortedBlockTypes.entrySet()) {
+		for (Map.Entry<Long, BlockTypeMap> chunkEntry : sortedBlockTypes.entrySet()) {
 			
-			BlockVec chunkPos = chunkEntry.getKey();
+			long chunkKey = chunkEntry.getKey();
 			PacketContainer fakeBlocksPacket = protocolManager.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
 			
-			fakeBlocksPacket.getChunkCoordIntPairs().write(0, new ChunkCoordIntPair(chunkPos.getX(), chunkPos.getZ()));
-			fakeBlocksPacket.getMultiBlockChangeInfoArrays().write(0, createBlockInfoArray(chunkEntry.getValue(), player.getWorld()));
-			sendCustomPacket(player, fakeBlocksPacket);
+			fakeBlocksPacket.getChunkCoordIntPairs().write(0, new ChunkCoordIntPair(BlockTypeMap.getX(chunkKey), BlockTypeMap.getZ(chunkKey)));
+			fakeBlocksPacket.getMultiBlockChangeInfoArrays().write(0, createBlockInfoArray(chunkEntry.getValue(), world));
+			fakeBlocksPackets.add(fakeBlocksPacket);
 		}
+		
+		return fakeBlocksPackets;
 	}
 	
-	private void sendMultipleFakeBlocks1_16_2(Player player, Map<BlockVec, BlockType> blockCopies) {
+	private List<PacketContainer> createMultipleFakeBlocks1_16_2(BlockTypeMap blockCopies) {
 		
-		Map<BlockVec, Map<BlockVec, BlockType>> sortedBlockTypes = getSortedBy16x16x16(blockCopies);
+		Map<Long, BlockTypeMap> sortedBlockTypes = getSortedBy16x16x16(blockCopies);
+		List<PacketContainer> fakeBlocksPackets = new ArrayList<>(sortedBlockTypes.size());
 		
-		for (BlockVec chunkPos : sortedBlockTypes.keySet()) {
+		for (Map.Entry<Long, BlockTypeMap> sectionEntry : sortedBlockTypes.entrySet()) {
+			
+			long sectionKey = sectionEntry.getKey();
+			BlockTypeMap blocksInSection = sectionEntry.getValue();
+			
+			short[] chunkLocs = new short[blocksInSection.size()];
+			WrappedBlockData[] blockInfoArray = new WrappedBlockData[blocksInSection.size()];
+			int[] i = {0};
+			
+			blocksInSection.forEach((blockKey, blockType) -> {
+				
+				chunkLocs[i[0]] = toChunkShort(blockKey);
+				blockInfoArray[i[0]] = blockType.getWrapped();
+				++i[0];
+			});
 			
-			Map<BlockVec, BlockType> blockInChunk = sortedBlockTypes.get(chunkPos);
 			PacketContainer fakeBlocksPacket = protocolManager.createPacket(PacketType.Play.Server.MULTI_BLOCK_CHANGE);
 			
-			fakeBlocksPacket.getSectionPositions().write(0, chunkPos.toBlockPos());
-			fakeBlocksPacket.getShortArrays().write(0, createChunkLocsArray1_16_2(blockInChunk.keySet()));
-			fakeBlocksPacket.getBlockDataArrays().write(0, createBlockInfoArray1_16_2(blockInChunk.values()));
-			sendCustomPacket(player, fakeBlocksPacket);
+			fakeBlocksPacket.getSectionPositions().write(0, new BlockPosition(
+					BlockTypeMap.getX(sectionKey),
+					BlockTypeMap.getY(sectionKey),
+					BlockTypeMap.getZ(sectionKey)));
+			fakeBlocksPacket.getShortArrays().write(0, chunkLocs);
+			fakeBlocksPacket.getBlockDataArrays().write(0, blockInfoArray);
+			fakeBlocksPackets.add(fakeBlocksPacket);
 		}
+		
+		return fakeBlocksPackets;
 	}
 	
 	/**
 	 * Returns the passed block copies sorted by their chunks so multi block change packets can be created with them.
+	 * The chunks are stored as packed coordinates with y = 0.
 	 */
-	private Map<BlockVec, Map<BlockVec, BlockType>> getSortedByChunks(Map<BlockVec, BlockType> blockCopies) {
+	private Map<Long, BlockTypeMap> getSortedByChunks(BlockTypeMap blockCopies) {
 		
-		Map<BlockVec, Map<BlockVec, BlockType>> sortedBlockCopies = new HashMap<>();
+		Map<Long, BlockTypeMap> sortedBlockCopies = new HashMap<>();
 		
-		for (Map.Entry<BlockVec, BlockType> entry : blockCopies.entrySet()) {
+		blockCopies.forEach((blockKey, blockType) -> {
 			
-			BlockVec blockPos = entry.getKey();
-			BlockVec chunkPos = new BlockVec(blockPos.getX() >> 4, 0, blockPos.getZ() >> 4);
-			
-			sortedBlockCopies.computeIfAbsent(chunkPos, map -> new HashMap<>());
-			sortedBlockCopies.get(chunkPos).put(blockPos, entry.getValue());
-		}
+			long chunkKey = BlockTypeMap.toKey(BlockTypeMap.getX(blockKey) >> 4, 0, BlockTypeMap.getZ(blockKey) >> 4);
+			sortedBlockCopies.computeIfAbsent(chunkKey, map -> new BlockTypeMap()).put(blockKey, blockType);
+		});
 		
 		return sortedBlockCopies;
 	}
 	
 	/**
-	 * Returns the passed block copies sorted by their chunks so multi block change packets can be created with them.
+	 * Returns the passed block copies sorted by their 16x16x16 chunk sections so multi block change packets can be created with them (1.16.2+).
 	 */
-	private Map<BlockVec, Map<BlockVec, BlockType>> getSortedBy16x16x16(Map<BlockVec, BlockType> blockCopies) {
+	private Map<Long, BlockTypeMap> getSortedBy16x16x16(BlockTypeMap blockCopies) {
 		
-		Map<BlockVec, Map<BlockVec, BlockType>> sortedBlockCopies = new HashMap<>();
+		Map<Long, BlockTypeMap> sortedBlockCopies = new HashMap<>();
 		
-		for (Map.Entry<BlockVec, BlockType> entry : blockCopies.entrySet()) {
+		blockCopies.forEach((blockKey, blockType) -> {
 			
-			BlockVec blockPos = entry.getKey();
-			BlockVec cubePos = new BlockVec(blockPos.getX() >> 4, blockPos.getY() >> 4, blockPos.getZ() >> 4);
+			long sectionKey = BlockTypeMap.toKey(
+					BlockTypeMap.getX(blockKey) >> 4,
+					BlockTypeMap.getY(blockKey) >> 4,
+					BlockTypeMap.getZ(blockKey) >> 4);
 			
-			sortedBlockCopies.computeIfAbsent(cubePos, map -> new HashMap<>());
-			sortedBlockCopies.get(cubePos).put(blockPos, entry.getValue());
-		}
+			sortedBlockCopies.computeIfAbsent(sectionKey, map -> new BlockTypeMap()).put(blockKey, blockType);
+		});
 		
 		return sortedBlockCopies;
 	}
@@ -238,53 +304,29 @@ public class PacketHandler {
 	 * Creates an array of MultiBlockChangeInfos each representing the location and block data for a block in a
 	 * MultiBlockChangePacket.
 	 */
-	private MultiBlockChangeInfo[] createBlockInfoArray(Map<BlockVec, BlockType> blocksTypesInChunk, World world) {
+	private MultiBlockChangeInfo[] createBlockInfoArray(BlockTypeMap blocksTypesInChunk, World world) {
 		
 		MultiBlockChangeInfo[] blockInfoArray = new MultiBlockChangeInfo[blocksTypesInChunk.size()];
-		int i = 0;
+		int[] i = {0};
 		
-		for (Map.Entry<BlockVec, BlockType> entry : blocksTypesInChunk.entrySet()) {
+		blocksTypesInChunk.forEach((blockKey, blockType) -> {
 			
-			Location blockLoc = entry.getKey().toLocation(world);
-			blockInfoArray[i] = new MultiBlockChangeInfo(blockLoc, entry.getValue().getWrapped());
-			++i;
-		}
+			Location blockLoc = new Location(world, BlockTypeMap.getX(blockKey), BlockTypeMap.getY(blockKey), BlockTypeMap.getZ(blockKey));
+			blockInfoArray[i[0]] = new MultiBlockChangeInfo(blockLoc, blockType.getWrapped());
+			++i[0];
+		});
 		
 		return blockInfoArray;
 	}
 	
 	/**
-	 * Creates an array of WarppedBlockData each representing the block data for a block in a
-	 * MultiBlockChangePacket (1.16.2+).
+	 * Returns a short representing a block's location relative to it's chunk section for the MultiBlockChangePacket (1.16.2+).
 	 */
-	private WrappedBlockData[] createBlockInfoArray1_16_2(Collection<BlockType> blocksTypesInChunk) {
-		
-		WrappedBlockData[] blockInfoArray = new WrappedBlockData[blocksTypesInChunk.size()];
-		int i = 0;
+	private short toChunkShort(long blockKey) {
 		
-		for (BlockType blockType : blocksTypesInChunk) {
-			blockInfoArray[i] = blockType.getWrapped();
-			++i;
-		}
-		
-		return blockInfoArray;
-	}
-	
-	/**
-	 * Creates an array of shorts each representing a block's location relative to it's chunk for the the
-	 * MultiBlockChangePacket (1.16.2+).
-	 */
-	private short[] createChunkLocsArray1_16_2(Collection<BlockVec> blockLocsInChunk) {
-		
-		short[] chunkLocs = new short[blockLocsInChunk.size()];
-		int i = 0;
-		
-		for (BlockVec loc : blockLocsInChunk) {
-			chunkLocs[i] = loc.toChunkShort();
-			++i;
-		}
-		
-		return chunkLocs;
+		return (short) ((BlockTypeMap.getX(blockKey) & 0xF) << 8 |
+		                (BlockTypeMap.getZ(blockKey) & 0xF) << 4 |
+		                (BlockTypeMap.getY(blockKey) & 0xF));
 	}
 	
 	public void hideProjectedEntities(Player player, Set<ProjectionEntity> entities) {
@@ -303,7 +345,8 @@ public class PacketHandler {
 		
 		PacketContainer destroyPacket = protocolManager.createPacket(PacketType.Play.Server.ENTITY_DESTROY);
 		destroyPacket.getIntegerArrays().write(0, entityIds);
-		sendPacket(player, destroyPacket);
+		writePacket(player, destroyPacket);
+		packetBatcher.flush(player);
 	}
 	
 	public void hideProjectedEntity(Player player, ProjectionEntity entity) {
@@ -312,7 +355,8 @@ public class PacketHandler {
 		
 		PacketContainer destroyPacket = protocolManager.createPacket(PacketType.Play.Server.ENTITY_DESTROY);
 		destroyPacket.getIntegerArrays().write(0, entityIds);
-		sendPacket(player, destroyPacket);
+		writePacket(player, destroyPacket);
+		packetBatcher.flush(player);
 	}
 	
 	public void hideEntities(Player player, Set<Entity> entities) {
@@ -331,14 +375,17 @@ public class PacketHandler {
 		
 		PacketContainer destroyPacket = protocolManager.createPacket(PacketType.Play.Server.ENTITY_DESTROY);
 		destroyPacket.getIntegerArrays().write(0, entityIds);
-		sendPacket(player, destroyPacket);
+		writePacket(player, destroyPacket);
+		packetBatcher.flush(player);
 	}
 	
 	public void showEntities(Player player, Set<Entity> visibleEntities) {
 		
 		for (Entity entity : visibleEntities) {
-			showEntity(player, entity, entity.getEntityId(), new Transform(), false);
+			writeEntity(player, entity, entity.getEntityId(), new Transform(), false);
 		}
+		
+		packetBatcher.flush(player);
 	}
 	
 	public void showEntity(Player player,
@@ -347,6 +394,16 @@ public class PacketHandler {
 	                       Transform transform,
 	                       boolean isProjection) {
 		
+		writeEntity(player, entity, entityId, transform, isProjection);
+		packetBatcher.flush(player);
+	}
+	
+	private void writeEntity(Player player,
+	                         Entity entity,
+	                         int entityId,
+	                         Transform transform,
+	                         boolean isProjection) {
+		
 		if (entity == null || entity.isDead()) {
 			return;
 		}
@@ -362,13 +419,13 @@ public class PacketHandler {
 					return;
 				
 				case PAINTING:
-					sendPacket(player, createPaintingPacket((Painting) entity, entityLoc, entityId, transform));
+					writePacket(player, createPaintingPacket((Painting) entity, entityLoc, entityId, transform));
 					break;
 				
 				case PLAYER:
 					
-					sendPacket(player, createPlayerPacket((HumanEntity) entity, entityLoc, entityId));
-					sendPacket(player, createHeadRotation(entity, entityLoc.getYaw()));
+					writePacket(player, createPlayerPacket((HumanEntity) entity, entityLoc, entityId));
+					writePacket(player, createHeadRotation(entity, entityLoc.getYaw()));
 					showEquipment(player, (LivingEntity) entity, entityId, isProjection);
 					break;
 				
@@ -376,16 +433,16 @@ public class PacketHandler {
 					
 					if (entity instanceof LivingEntity) {
 						
-						sendPacket(player, createEntityLivingPacket((LivingEntity) entity, entityLoc, entityId));
-						sendPacket(player, createHeadRotation(entity, entityLoc.getYaw()));
+						writePacket(player, createEntityLivingPacket((LivingEntity) entity, entityLoc, entityId));
+						writePacket(player, createHeadRotation(entity, entityLoc.getYaw()));
 						showEquipment(player, (LivingEntity) entity, entityId, isProjection);
 						
 					} else {
-						sendPacket(player, createEntityPacket(entity, entityLoc, entityId));
+						writePacket(player, createEntityPacket(entity, entityLoc, entityId));
 					}
 			}
 			
-			sendPacket(player, createMetadataPacket(entity));
+			writePacket(player, createMetadataPacket(entity));
 			
 		} catch (IllegalAccessException | InvocationTargetException e) {
 			throw new RuntimeException("Failed to do nms stuff", e);
@@ -534,8 +591,9 @@ public class PacketHandler {
 		headRotPacket.getIntegers().write(0, entity.getFakeId());
 		headRotPacket.getBytes().write(0, (byte) (int) (newYaw * 265 / 360));
 		
-		sendPacket(player, moveLookPacket);
-		sendPacket(player, headRotPacket);
+		writePacket(player, moveLookPacket);
+		writePacket(player, headRotPacket);
+		packetBatcher.flush(player);
 	}
 	
 	private PacketContainer createMetadataPacket(Entity entity) throws InvocationTargetException, IllegalAccessException {
@@ -577,7 +635,7 @@ public class PacketHandler {
 					.write(1, itemSlots.indexOf(slot) - 1);
 			
 			equipmentPacket.getItemModifier().write(0, item);
-			sendPacket(player, equipmentPacket);
+			writePacket(player, equipmentPacket);
 		}
 	}
 	
@@ -597,7 +655,7 @@ public class PacketHandler {
 			equipmentPacket.getIntegers().write(0, entityId);
 			equipmentPacket.getItemSlots().write(0, slot);
 			equipmentPacket.getItemModifier().write(0, item);
-			sendPacket(player, equipmentPacket);
+			writePacket(player, equipmentPacket);
 		}
 	}
 	
@@ -625,7 +683,7 @@ public class PacketHandler {
 		PacketContainer equipmentPacket = protocolManager.createPacket(PacketType.Play.Server.ENTITY_EQUIPMENT);
 		equipmentPacket.getIntegers().write(0, entityId);
 		equipmentPacket.getSlotStackPairLists().write(0, equipmentList);
-		sendPacket(player, equipmentPacket);
+		writePacket(player, equipmentPacket);
 	}
 	
 	public Map<EnumWrappers.ItemSlot, ItemStack> getEquipmentList(LivingEntity entity, boolean isProjection) {
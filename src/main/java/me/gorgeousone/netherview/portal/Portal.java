@@ -11,6 +11,7 @@ import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
@@ -28,6 +29,8 @@ public class Portal {
 	
 	private Portal counterPortal;
 	private Transform tpTransform;
+	//the portals linked to this portal, kept up to date whenever a link is set or removed
+	private final Set<Portal> linkedPortals;
 	
 	private Map.Entry<BlockCache, BlockCache> blockCaches;
 	private Map.Entry<ProjectionCache, ProjectionCache> projectionCaches;
@@ -48,6 +51,7 @@ public class Portal {
 		this.frameShape = frameShape.clone();
 		this.innerShape = innerShape.clone();
 		this.portalBlocks = portalBlocks;
+		this.linkedPortals = new HashSet<>();
 	}
 	
 	public World getWorld() {
@@ -114,11 +118,21 @@ public class Portal {
 	}
 	
 	public void setLinkedTo(Portal counterPortal) {
+		
+		if (this.counterPortal != null) {
+			this.counterPortal.linkedPortals.remove(this);
+		}
+		
 		this.counterPortal = counterPortal;
+		counterPortal.linkedPortals.add(this);
 	}
 	
 	public void removeLink() {
 		
+		if (counterPortal != null) {
+			counterPortal.linkedPortals.remove(this);
+		}
+		
 		this.counterPortal = null;
 		this.tpTransform = null;
 		removeProjectionCaches();
@@ -128,6 +142,13 @@ public class Portal {
 		return counterPortal != null;
 	}
 	
+	/**
+	 * Returns the portals that are linked to this portal and display its block caches in their projections.
+	 */
+	public Set<Portal> getLinkedPortals() {
+		return Collections.unmodifiableSet(linkedPortals);
+	}
+	
 	public void setBlockCaches(Map.Entry<BlockCache, BlockCache> blockCaches) {
 		this.blockCaches = blockCaches;
 	}
@@ -0,0 +1,83 @@
+package me.gorgeousone.netherview.utils;
+
+import me.gorgeousone.netherview.geometry.BlockVec;
+import org.bukkit.World;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+public final class ChunkUtils {
+	
+	private ChunkUtils() {}
+	
+	private static Method WORLD_GET_CHUNK_AT_ASYNC;
+	
+	static {
+		try {
+			//only offered by Paper servers
+			WORLD_GET_CHUNK_AT_ASYNC = World.class.getMethod("getChunkAtAsync", int.class, int.class);
+		} catch (NoSuchMethodException e) {
+			WORLD_GET_CHUNK_AT_ASYNC = null;
+		}
+	}
+	
+	/**
+	 * Packs the coordinates of a chunk into a single long.
+	 */
+	public static long getChunkKey(int chunkX, int chunkZ) {
+		return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Returns the packed coordinates of all chunks that blocks between min (inclusive) and max (exclusive) are located in.
+	 */
+	public static long[] getChunkKeys(BlockVec min, BlockVec max) {
+		
+		int minChunkX = min.getX() >> 4;
+		int minChunkZ = min.getZ() >> 4;
+		int chunkCountX = ((max.getX() - 1) >> 4) - minChunkX + 1;
+		int chunkCountZ = ((max.getZ() - 1) >> 4) - minChunkZ + 1;
+		
+		long[] chunkKeys = new long[chunkCountX * chunkCountZ];
+		
+		for (int dx = 0; dx < chunkCountX; dx++) {
+			for (int dz = 0; dz < chunkCountZ; dz++) {
+				chunkKeys[dx * chunkCountZ + dz] = getChunkKey(minChunkX + dx, minChunkZ + dz);
+			}
+		}
+		
+		return chunkKeys;
+	}
+	
+	public static int getChunkX(long chunkKey) {
+		return (int) (chunkKey >> 32);
+	}
+	
+	public static int getChunkZ(long chunkKey) {
+		return (int) chunkKey;
+	}
+	
+	public static boolean isAsyncChunkLoadingSupported() {
+		return WORLD_GET_CHUNK_AT_ASYNC != null;
+	}
+	
+	/**
+	 * Requests the server to load a chunk without blocking the main thread if the server supports it.
+	 * Returns false if the chunk could not be requested.
+	 */
+	public static boolean loadChunkAsync(World world, int chunkX, int chunkZ) {
+		
+		if (!isAsyncChunkLoadingSupported()) {
+			return false;
+		}
+		
+		try {
+			WORLD_GET_CHUNK_AT_ASYNC.invoke(world, chunkX, chunkZ);
+			return true;
+			
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package me.gorgeousone.netherview.wrapper;
 
-import me.gorgeousone.netherview.blockcache.BlockCache;
+import me.gorgeousone.netherview.blockcache.ReadableBlockCache;
 import me.gorgeousone.netherview.geometry.viewfrustum.ViewFrustum;
 import me.gorgeousone.netherview.utils.NmsUtils;
 import me.gorgeousone.netherview.utils.VersionUtils;
@@ -14,7 +14,6 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -55,7 +54,13 @@ public class WrappedBoundingBox {
 	private final double widthX;
 	private final double widthZ;
 	private final double height;
-	private final List<Vector> vertices;
+	
+	private final double minX;
+	private final double minY;
+	private final double minZ;
+	private final double maxX;
+	private final double maxY;
+	private final double maxZ;
 	
 	public WrappedBoundingBox(Entity entity, Location entityLoc, double widthX, double height, double widthZ) {
 		
@@ -68,26 +73,12 @@ public class WrappedBoundingBox {
 			entityLoc.subtract(0, height / 2, 0);
 		}
 		
-		Vector min = entityLoc.clone().subtract(
-				widthX / 2,
-				0,
-				widthZ / 2).toVector();
-		
-		Vector max = entityLoc.clone().add(
-				widthX / 2,
-				height,
-				widthZ / 2).toVector();
-		
-		vertices = new ArrayList<>(Arrays.asList(
-				min,
-				new Vector(max.getX(), min.getY(), min.getZ()),
-				new Vector(min.getX(), min.getY(), max.getZ()),
-				new Vector(max.getX(), min.getY(), max.getZ()),
-				new Vector(min.getX(), max.getY(), min.getZ()),
-				new Vector(max.getX(), max.getY(), min.getZ()),
-				new Vector(min.getX(), max.getY(), max.getZ()),
-				max
-		));
+		minX = entityLoc.getX() - widthX / 2;
+		minY = entityLoc.getY();
+		minZ = entityLoc.getZ() - widthZ / 2;
+		maxX = entityLoc.getX() + widthX / 2;
+		maxY = entityLoc.getY() + height;
+		maxZ = entityLoc.getZ() + widthZ / 2;
 	}
 	
 	public double getWidthX() {
@@ -106,9 +97,29 @@ public class WrappedBoundingBox {
 	 * Returns the 8 vertices of the entity's bounding box
 	 */
 	public List<Vector> getVertices() {
+		
+		List<Vector> vertices = new ArrayList<>(8);
+		
+		for (int i = 0; i < 8; i++) {
+			vertices.add(new Vector(getVertexX(i), getVertexY(i), getVertexZ(i)));
+		}
+		
 		return vertices;
 	}
 	
+	//the 3 bits of the vertex index decide whether the min or max coordinate is used on the x, y and z axis
+	private double getVertexX(int vertexIndex) {
+		return (vertexIndex & 1) == 0 ? minX : maxX;
+	}
+	
+	private double getVertexY(int vertexIndex) {
+		return (vertexIndex & 4) == 0 ? minY : maxY;
+	}
+	
+	private double getVertexZ(int vertexIndex) {
+		return (vertexIndex & 2) == 0 ? minZ : maxZ;
+	}
+	
 	public static WrappedBoundingBox of(Entity entity) {
 		return of(entity, entity.getLocation());
 	}
@@ -161,11 +172,11 @@ public class WrappedBoundingBox {
 	/**
 	 * Returns true if any of the 8 vertices of the bounding box are inside of the block cache.
 	 */
-	public boolean intersectsBlockCache(BlockCache cache) {
+	public boolean intersectsBlockCache(ReadableBlockCache cache) {
 		
-		for (Vector vertex : getVertices()) {
+		for (int i = 0; i < 8; i++) {
 			
-			if (cache.contains(vertex)) {
+			if (cache.contains(getVertexX(i), getVertexY(i), getVertexZ(i))) {
 				return true;
 			}
 		}
@@ -173,16 +184,9 @@ public class WrappedBoundingBox {
 	}
 	
 	/**
-	 * Returns true if any of the 8 vertices of the bounding box are inside of the view frustum.
+	 * Returns true if the bounding box intersects the view frustum.
 	 */
 	public boolean intersectsFrustum(ViewFrustum viewFrustum) {
-		
-		for (Vector vertex : getVertices()) {
-			
-			if (viewFrustum.contains(vertex)) {
-				return true;
-			}
-		}
-		return false;
+		return viewFrustum.intersectsBox(minX, minY, minZ, maxX, maxY, maxZ);
 	}
 }
\ No newline at end of file